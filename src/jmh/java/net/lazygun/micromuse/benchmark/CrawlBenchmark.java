@@ -0,0 +1,73 @@
+package net.lazygun.micromuse.benchmark;
+
+import net.lazygun.micromuse.Crawler;
+import net.lazygun.micromuse.Link;
+import net.lazygun.micromuse.MapSessionFactory;
+import net.lazygun.micromuse.metrics.CrawlMetrics;
+import net.lazygun.micromuse.metrics.MeteredRoomService;
+import net.lazygun.micromuse.neo4j.GraphRoomService;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks crawling a whole generated map into an empty impermanent database, from start to
+ * finish.
+ *
+ * @author Ewan
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CrawlBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int rooms;
+
+    @Param({"2", "8"})
+    public int branching;
+
+    @Param({"0.01", "0.1"})
+    public double teleportDensity;
+
+    @Param({"1", "4"})
+    public int crawlers;
+
+    private List<Link> map;
+    private GraphDatabaseService db;
+    private MeteredRoomService roomService;
+    private MapSessionFactory sessionFactory;
+
+    @Setup(Level.Trial)
+    public void generateMap() {
+        map = MapGenerator.generate(rooms, branching, teleportDensity, rooms);
+    }
+
+    @Setup(Level.Invocation)
+    public void createDatabase() {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        GraphRoomService graph = new GraphRoomService(db);
+        roomService = new MeteredRoomService(graph, new CrawlMetrics(graph));
+        sessionFactory = new MapSessionFactory(map, roomService);
+    }
+
+    @TearDown(Level.Invocation)
+    public void shutdownDatabase() {
+        db.shutdown();
+    }
+
+    @Benchmark
+    public long crawl() {
+        long links = Crawler.crawl(crawlers, 0, roomService, sessionFactory);
+        if (links != map.size()) {
+            throw new IllegalStateException("Crawled " + links + " of " + map.size() + " links");
+        }
+        return links;
+    }
+}
@@ -0,0 +1,97 @@
+package net.lazygun.micromuse.benchmark;
+
+import net.lazygun.micromuse.*;
+import net.lazygun.micromuse.neo4j.GraphRoomService;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A generated map, the first part of which has already been crawled into an impermanent database,
+ * leaving the rest behind a frontier of unexplored rooms.
+ *
+ * @author Ewan
+ */
+@State(Scope.Benchmark)
+public class ExploredGraph {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"1000", "10000", "100000"})
+    public int rooms;
+
+    @Param({"2", "8"})
+    public int branching;
+
+    @Param({"0.01", "0.1"})
+    public double teleportDensity;
+
+    @Param({"0.5"})
+    public double explored;
+
+    GraphDatabaseService db;
+    GraphRoomService roomService;
+    List<Link> map;
+    /** Rooms that have been crawled, as the examples the map session would report them with */
+    List<Room> exploredRooms;
+    /** Links that haven't been crawled, but lead out of a room that has */
+    List<Link> frontier;
+    List<Long> exploredIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws TraversalException {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        roomService = new GraphRoomService(db);
+        map = MapGenerator.generate(rooms, branching, teleportDensity, rooms);
+        int crawled = (int) (map.size() * explored);
+        exploredRooms = new ArrayList<>();
+        exploredIds = new ArrayList<>();
+        exploredRooms.add(map.get(0).getFrom());
+        for (int start = 0; start < crawled; start += BATCH_SIZE) {
+            try (Transaction tx = roomService.beginTransaction()) {
+                for (Link link : map.subList(start, Math.min(start + BATCH_SIZE, crawled))) {
+                    Room from = roomService.findOrCreate(link.getFrom());
+                    from.link(link.getExit(), link.getTo());
+                    if (!link.getExit().equals(MapGenerator.UP)) {
+                        exploredRooms.add(link.getTo());
+                    }
+                }
+                tx.success();
+            }
+        }
+        Set<Room> crawledRooms = Collections.newSetFromMap(new IdentityHashMap<Room, Boolean>());
+        crawledRooms.addAll(exploredRooms);
+        frontier = new ArrayList<>();
+        for (Link link : map.subList(crawled, map.size())) {
+            if (!link.getExit().equals(MapGenerator.UP) && crawledRooms.contains(link.getFrom())) {
+                frontier.add(link);
+            }
+        }
+        try (Transaction tx = roomService.beginTransaction()) {
+            for (Room room : exploredRooms) {
+                exploredIds.add(roomService.findOrCreate(room).getId());
+            }
+            tx.success();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        db.shutdown();
+    }
+
+    Room randomExploredRoom() {
+        return exploredRooms.get(ThreadLocalRandom.current().nextInt(exploredRooms.size()));
+    }
+
+    long randomExploredId() {
+        return exploredIds.get(ThreadLocalRandom.current().nextInt(exploredIds.size()));
+    }
+
+    Link randomFrontierLink() {
+        return frontier.get(ThreadLocalRandom.current().nextInt(frontier.size()));
+    }
+}
@@ -0,0 +1,54 @@
+package net.lazygun.micromuse.benchmark;
+
+import net.lazygun.micromuse.Link;
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.RoomImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates maps for benchmarking: a tree of rooms in which every room has up to a given number of
+ * exits to rooms further out, and one back up again. The first room, and a given fraction of the
+ * others chosen at random, are teleportable. Links come out in breadth-first order, outward exit
+ * then the way back, which is the order a single crawler would discover them.
+ *
+ * @author Ewan
+ */
+public class MapGenerator {
+
+    static final String UP = "up";
+
+    public static List<Link> generate(int rooms, int branching, double teleportDensity, long seed) {
+        Random random = new Random(seed);
+        List<Room> generated = new ArrayList<>(rooms);
+        for (int i = 0; i < rooms; i++) {
+            List<String> exits = new ArrayList<>(branching + 1);
+            for (int child = firstChild(i, branching); child < rooms && child < firstChild(i + 1, branching); child++) {
+                exits.add(exitTo(child));
+            }
+            if (i > 0) {
+                exits.add(UP);
+            }
+            String location = i == 0 || random.nextDouble() < teleportDensity ? "#" + i : null;
+            generated.add(new RoomImpl("Room " + i, location, "Generated room " + i + ".", exits));
+        }
+        List<Link> links = new ArrayList<>(2 * rooms);
+        for (int i = 1; i < rooms; i++) {
+            Room parent = generated.get((i - 1) / branching);
+            Room child = generated.get(i);
+            links.add(new Link(parent, exitTo(i), child));
+            links.add(new Link(child, UP, parent));
+        }
+        return links;
+    }
+
+    private static int firstChild(int room, int branching) {
+        return room * branching + 1;
+    }
+
+    private static String exitTo(int room) {
+        return "to " + room;
+    }
+}
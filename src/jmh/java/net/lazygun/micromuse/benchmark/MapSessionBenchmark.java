@@ -0,0 +1,53 @@
+package net.lazygun.micromuse.benchmark;
+
+import net.lazygun.micromuse.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks walking a map session through rooms that have already been crawled, which is what a
+ * crawler does on its way to the frontier.
+ *
+ * @author Ewan
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MapSessionBenchmark {
+
+    private Session session;
+
+    @Setup(Level.Trial)
+    public void setUp(ExploredGraph graph) {
+        session = new MapSessionFactory(graph.map, graph.roomService).createSession();
+    }
+
+    /**
+     * Takes a random exit that has already been explored, so that the walk never adds to the
+     * graph, or teleports back to the start if there isn't one.
+     */
+    @Benchmark
+    public Room exit(ExploredGraph graph) throws TraversalException {
+        try (Transaction tx = graph.roomService.beginTransaction()) {
+            Room current = session.getCurrentRoom();
+            List<String> explored = new ArrayList<>(current.getExits().size());
+            for (String exit : current.getExits()) {
+                if (!current.exit(exit).isUnexplored()) {
+                    explored.add(exit);
+                }
+            }
+            Room next = explored.isEmpty()
+                    ? session.teleport("#0")
+                    : session.exit(explored.get(ThreadLocalRandom.current().nextInt(explored.size())));
+            tx.success();
+            return next;
+        }
+    }
+}
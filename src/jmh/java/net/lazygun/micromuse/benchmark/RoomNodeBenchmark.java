@@ -0,0 +1,62 @@
+package net.lazygun.micromuse.benchmark;
+
+import net.lazygun.micromuse.*;
+import net.lazygun.micromuse.neo4j.RoomNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks the graph operations a crawler makes for every room it explores. Operations that
+ * write are rolled back, so that every invocation sees the same graph.
+ *
+ * @author Ewan
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoomNodeBenchmark {
+
+    private static final AtomicLong created = new AtomicLong();
+
+    @Benchmark
+    public Route findNearestUnexplored(ExploredGraph graph) throws TraversalException {
+        try (Transaction tx = graph.roomService.beginTransaction()) {
+            Route route = RoomNode.findById(graph.randomExploredId()).findNearestUnexplored();
+            tx.success();
+            return route;
+        }
+    }
+
+    @Benchmark
+    public Room create(ExploredGraph graph) {
+        try (Transaction tx = graph.roomService.beginTransaction()) {
+            // Rolled back, so the graph is the same for every invocation
+            tx.failure();
+            return RoomNode.create("Benchmark room " + created.incrementAndGet(), null, "",
+                                   Arrays.asList("north", "south", "east", "west"));
+        }
+    }
+
+    @Benchmark
+    public Link link(ExploredGraph graph) throws TraversalException {
+        Link link = graph.randomFrontierLink();
+        try (Transaction tx = graph.roomService.beginTransaction()) {
+            tx.failure();
+            return graph.roomService.findOrCreate(link.getFrom()).link(link.getExit(), link.getTo());
+        }
+    }
+
+    @Benchmark
+    public Room findOrCreate(ExploredGraph graph) {
+        try (Transaction tx = graph.roomService.beginTransaction()) {
+            Room room = graph.roomService.findOrCreate(graph.randomExploredRoom());
+            tx.success();
+            return room;
+        }
+    }
+}
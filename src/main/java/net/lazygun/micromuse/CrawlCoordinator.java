@@ -0,0 +1,326 @@
+package net.lazygun.micromuse;
+
+import net.lazygun.micromuse.checkpoint.CrawlCheckpoint;
+import net.lazygun.micromuse.checkpoint.CrawlCheckpoint.SavedRoute;
+import net.lazygun.micromuse.metrics.CrawlMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares the frontier of unexplored rooms between all the {@link Crawler}s working on one map.
+ * <p>
+ * Routes are found by a {@link RouteFinder}, which for a graph is a planner that weighs up
+ * teleports against exits.
+ * <p>
+ * Before a crawler sets off towards an unexplored room it must claim it, which takes out a lease on
+ * that room. Leased rooms are invisible to every other crawler's search, so two crawlers never race
+ * each other to the same exit. A lease is given back with {@link #release(Route)} once the link has
+ * been committed (or abandoned), and lapses on its own if its holder dies without releasing it.
+ * <p>
+ * Rooms can also be {@link #reserve(long) reserved}, which hides them from every crawler for good,
+ * and crawlers that run out of unexplored rooms near them go on to search from each of the
+ * coordinator's {@link #addEntryPoint(Room) entry points}. Those searches go through a
+ * {@link RouteCache}, since crawlers with nothing near them all make the same ones, over and over,
+ * until something changes.
+ * <p>
+ * What the coordinator knows can be saved as a {@link CrawlCheckpoint}, and a coordinator that
+ * {@link #resume(CrawlCheckpoint, RoomService) resumes} from one hands out the routes it saved
+ * before searching for any of its own.
+ *
+ * @author Ewan
+ */
+public class CrawlCoordinator {
+
+    public static final long DEFAULT_LEASE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final long leaseMillis;
+    private final ConcurrentMap<Long, Lease> leases = new ConcurrentHashMap<>();
+    private final Set<Long> reserved = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private final List<Room> entryPoints = new CopyOnWriteArrayList<>();
+    private final List<CrawlListener> listeners = new CopyOnWriteArrayList<>();
+    private final CrawlMetrics metrics;
+    private final RouteFinder finder;
+    private final RouteCache routes;
+    private final AtomicInteger crawlers = new AtomicInteger();
+    private final ConcurrentMap<Integer, Room> positions = new ConcurrentHashMap<>();
+    private final Queue<SavedRoute> saved = new ConcurrentLinkedQueue<>();
+    private final Queue<Long> startingRooms = new ConcurrentLinkedQueue<>();
+    private volatile RoomService resumedIn;
+    private long version = 0;
+
+    public CrawlCoordinator() {
+        this(DEFAULT_LEASE_MILLIS);
+    }
+
+    public CrawlCoordinator(long leaseMillis) {
+        this(leaseMillis, new CrawlMetrics());
+    }
+
+    public CrawlCoordinator(CrawlMetrics metrics) {
+        this(DEFAULT_LEASE_MILLIS, metrics);
+    }
+
+    public CrawlCoordinator(CrawlMetrics metrics, RouteFinder finder) {
+        this(DEFAULT_LEASE_MILLIS, metrics, finder);
+    }
+
+    public CrawlCoordinator(long leaseMillis, CrawlMetrics metrics) {
+        this(leaseMillis, metrics, RouteFinder.NEAREST);
+    }
+
+    /**
+     * @param finder how to search for unexplored rooms, usually the room service's
+     *               {@link RoomService#routeFinder()}
+     */
+    public CrawlCoordinator(long leaseMillis, CrawlMetrics metrics, RouteFinder finder) {
+        this.leaseMillis = leaseMillis;
+        this.metrics = metrics;
+        this.finder = finder;
+        this.routes = new RouteCache(RouteCache.DEFAULT_SIZE, metrics, finder);
+    }
+
+    /**
+     * Finds the nearest unexplored room to the given room that no other crawler has claimed, and
+     * claims it, searching from each entry point in turn if there are none to be found from the
+     * given room. If every reachable unexplored room is already claimed, waits until one of the
+     * other crawlers releases its claim (which may have uncovered new unexplored rooms) and then
+     * searches again.
+     *
+     * @return the route to the claimed room, or null if there is nothing left to explore
+     */
+    public Route claim(Room from) throws TraversalException, InterruptedException {
+        while (true) {
+            long seen = currentVersion();
+            expireLeases();
+            Route route = nextSaved();
+            if (route == null) {
+                route = finder.findNearestUnexplored(from, leases.keySet());
+            }
+            for (Iterator<Room> it = entryPoints.iterator(); route == null && it.hasNext(); ) {
+                route = routes.find(it.next(), leases.keySet(), seen);
+            }
+            if (route != null) {
+                long target = route.last().getTo().getId();
+                if (leases.putIfAbsent(target, new Lease(System.currentTimeMillis() + leaseMillis, route)) == null) {
+                    return route;
+                }
+                metrics.collision();
+                continue;
+            }
+            synchronized (this) {
+                if (getClaimCount() == 0) {
+                    return null;
+                }
+                if (version == seen) {
+                    wait(leaseMillis);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gives back the claim on the final room of the given route. Must only be called once the
+     * transaction that linked (or failed to link) that room has been closed.
+     */
+    public void release(Route route) {
+        if (route == null || route.last() == null) {
+            return;
+        }
+        long target = route.last().getTo().getId();
+        Lease lease = leases.get(target);
+        if (lease != null && lease != Lease.RESERVED) {
+            leases.remove(target, lease);
+        }
+        changed();
+    }
+
+    /**
+     * Hides the given unexplored room from every crawler for as long as this coordinator lives.
+     */
+    public void reserve(long roomId) {
+        leases.put(roomId, Lease.RESERVED);
+        reserved.add(roomId);
+    }
+
+    /**
+     * Picks up a crawl from a checkpoint it saved. The routes its crawlers had claimed, then the
+     * rest of the frontier it knew of, are handed out before any searching is done, each once, and
+     * only if it still leads to an unexplored room that nobody has claimed since. Crawlers starting
+     * from now on start in the rooms its crawlers were standing in, where those can be teleported
+     * to. The claims themselves aren't held, since whoever held them is gone.
+     */
+    public void resume(CrawlCheckpoint checkpoint, RoomService roomService) {
+        resumedIn = roomService;
+        saved.addAll(checkpoint.getClaims());
+        saved.addAll(checkpoint.getFrontier());
+        for (long position : checkpoint.getPositions()) {
+            startingRooms.add(position);
+        }
+        changed();
+    }
+
+    /**
+     * @return what this coordinator knows now: where each crawler is, what they've claimed, and
+     *         any saved routes it has yet to hand out
+     */
+    public CrawlCheckpoint checkpoint() {
+        List<Route> claimed = new ArrayList<>();
+        for (Lease lease : leases.values()) {
+            if (lease.route != null) {
+                claimed.add(lease.route);
+            }
+        }
+        return CrawlCheckpoint.of(new ArrayList<>(positions.values()), claimed, Collections.<Route>emptyList(), saved);
+    }
+
+    /**
+     * @return a teleportable room that a crawler was standing in when the checkpoint this
+     *         coordinator resumed from was saved, or null if there are none left. Must be called
+     *         in a transaction.
+     */
+    public Room startingRoom() {
+        for (Long id = startingRooms.poll(); id != null; id = startingRooms.poll()) {
+            Room room = resumedIn.findById(id);
+            if (room != null && room.isTeleportable()) {
+                return room;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a number for a new crawler to report its whereabouts under
+     */
+    int join() {
+        return crawlers.incrementAndGet();
+    }
+
+    void moved(int crawler, Room room) {
+        positions.put(crawler, room);
+    }
+
+    void left(int crawler) {
+        positions.remove(crawler);
+    }
+
+    /**
+     * Adds a teleportable room to search from when a crawler can't find anything to explore near
+     * where it is, for example the start of a part of the map that isn't joined to the rest yet.
+     */
+    public void addEntryPoint(Room room) {
+        if (!room.isTeleportable()) {
+            throw new IllegalArgumentException("Entry points must be teleportable: " + room);
+        }
+        entryPoints.add(room);
+        changed();
+    }
+
+    public void addListener(CrawlListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Tells every listener about a new link. Called by crawlers once the linking
+     * transaction has been committed.
+     */
+    void linked(Link link) {
+        for (CrawlListener listener : listeners) {
+            listener.linked(link);
+        }
+    }
+
+    public CrawlMetrics getMetrics() {
+        return metrics;
+    }
+
+    public RouteFinder getRouteFinder() {
+        return finder;
+    }
+
+    public RouteCache getRouteCache() {
+        return routes;
+    }
+
+    public boolean isClaimed(long roomId) {
+        return leases.containsKey(roomId);
+    }
+
+    public int getClaimCount() {
+        return leases.size() - reserved.size();
+    }
+
+    /**
+     * @return the number of times a crawler found a room only to have it claimed from under it
+     */
+    public long getCollisionCount() {
+        return metrics.getCollisions();
+    }
+
+    /**
+     * @return the next saved route that still leads to an unexplored room nobody has claimed, or
+     *         null if there are none left
+     */
+    private Route nextSaved() {
+        for (SavedRoute next = saved.poll(); next != null; next = saved.poll()) {
+            if (leases.containsKey(next.getTarget())) {
+                continue;
+            }
+            try {
+                Route route = next.resolve(resumedIn);
+                if (route != null) {
+                    return route;
+                }
+            } catch (TraversalException | RuntimeException ignored) {
+                // Changed beyond recognition since it was saved
+            }
+        }
+        return null;
+    }
+
+    private void expireLeases() {
+        long now = System.currentTimeMillis();
+        boolean expired = false;
+        for (Iterator<Map.Entry<Long, Lease>> it = leases.entrySet().iterator(); it.hasNext(); ) {
+            if (it.next().getValue().expiresAt < now) {
+                it.remove();
+                expired = true;
+            }
+        }
+        if (expired) {
+            changed();
+        }
+    }
+
+    private synchronized long currentVersion() {
+        return version;
+    }
+
+    private synchronized void changed() {
+        version++;
+        notifyAll();
+    }
+
+    private static class Lease {
+        private static final Lease RESERVED = new Lease(Long.MAX_VALUE, null);
+
+        private final long expiresAt;
+        private final Route route;
+
+        private Lease(long expiresAt, Route route) {
+            this.expiresAt = expiresAt;
+            this.route = route;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.lazygun.micromuse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs many crawlers, against one or more servers, from one process.
+ * <p>
+ * A crawler spends nearly all its time waiting on its session, so the cost of running hundreds of
+ * them is mostly the cost of their threads. Crawlers here run on threads with a small stack
+ * ({@link #DEFAULT_STACK_SIZE} rather than the usual megabyte or so), and their starts are
+ * staggered by scheduling rather than by sleeping. Each server (target) has its own limit on the
+ * commands in flight to it at once, shared by all of its sessions, and all crawlers share a limit
+ * on the links being written to the room service at once, so that a burst of discoveries queues
+ * up in front of the store rather than piling into it.
+ *
+ * @author Ewan
+ */
+public class CrawlExecutor {
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+    public static final long DEFAULT_STACK_SIZE = 256 * 1024;
+
+    private final RoomService roomService;
+    private final CrawlCoordinator coordinator;
+    private final Semaphore writes;
+    private final long stackSize;
+    private final List<Target> targets = new ArrayList<>();
+    private LinkWriter writer;
+
+    public CrawlExecutor(RoomService roomService, CrawlCoordinator coordinator) {
+        this(roomService, coordinator, UNLIMITED, DEFAULT_STACK_SIZE);
+    }
+
+    /**
+     * @param maxConcurrentWrites the most crawlers that may be linking rooms at once
+     * @param stackSize           the stack size of each crawler's thread, in bytes
+     */
+    public CrawlExecutor(RoomService roomService, CrawlCoordinator coordinator, int maxConcurrentWrites, long stackSize) {
+        this.roomService = roomService;
+        this.coordinator = coordinator;
+        this.writes = new Semaphore(maxConcurrentWrites);
+        this.stackSize = stackSize;
+    }
+
+    /**
+     * Adds crawlers on a server.
+     *
+     * @param crawlers              the number of crawlers, each with its own session
+     * @param maxConcurrentCommands the most commands that may be in flight to the server at once
+     * @param staggerMillis         the time between starting one crawler and the next
+     */
+    public CrawlExecutor addTarget(SessionFactory sessionFactory, int crawlers, int maxConcurrentCommands, long staggerMillis) {
+        targets.add(new Target(sessionFactory, crawlers, new Semaphore(maxConcurrentCommands), staggerMillis));
+        return this;
+    }
+
+    /**
+     * Has the crawlers hand their links to the given writer, to be made in batches behind them,
+     * rather than each making its own in a transaction of its own.
+     */
+    public CrawlExecutor writeBehind(LinkWriter writer) {
+        this.writer = writer;
+        writer.addListener(new CrawlListener() {
+            @Override
+            public void linked(Link link) {
+                coordinator.linked(link);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Crawls until the coordinator has nothing left to explore.
+     *
+     * @return the number of links made
+     */
+    public long run() throws InterruptedException {
+        int total = 0;
+        for (Target target : targets) {
+            total += target.crawlers;
+        }
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(Math.max(1, total), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(null, runnable, "crawler-" + count.incrementAndGet(), stackSize);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            List<Future<Integer>> jobs = new ArrayList<>(total);
+            for (final Target target : targets) {
+                final SessionFactory throttled = new SessionFactory() {
+                    @Override
+                    public Session createSession() {
+                        return new ThrottledSession(target.sessionFactory.createSession(), target.commands);
+                    }
+                };
+                for (int i = 0; i < target.crawlers; i++) {
+                    jobs.add(executor.schedule(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            return new Crawler(throttled, roomService, coordinator, writes, writer).call();
+                        }
+                    }, i * target.staggerMillis, TimeUnit.MILLISECONDS));
+                }
+            }
+            long totalLinks = 0;
+            for (int i = 1; i <= jobs.size(); i++) {
+                try {
+                    Integer links = jobs.get(i - 1).get();
+                    System.out.println("Crawler thread " + i + " of " + total + " completed. Created " + links + " links.");
+                    totalLinks += links;
+                } catch (ExecutionException e) {
+                    System.err.println("Exception running crawler thread " + i + " of " + total + ": " + e.getCause().getLocalizedMessage());
+                    e.getCause().printStackTrace();
+                }
+            }
+            return totalLinks;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class Target {
+        private final SessionFactory sessionFactory;
+        private final int crawlers;
+        private final Semaphore commands;
+        private final long staggerMillis;
+
+        private Target(SessionFactory sessionFactory, int crawlers, Semaphore commands, long staggerMillis) {
+            this.sessionFactory = sessionFactory;
+            this.crawlers = crawlers;
+            this.commands = commands;
+            this.staggerMillis = staggerMillis;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package net.lazygun.micromuse;
+
+/**
+ * Told about every link a {@link Crawler} makes, once the transaction that makes it has been
+ * committed.
+ *
+ * @author Ewan
+ */
+public interface CrawlListener {
+
+    /**
+     * @param link the new link, between rooms that have both been persisted
+     */
+    void linked(Link link);
+}
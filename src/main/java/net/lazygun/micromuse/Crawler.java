@@ -1,8 +1,25 @@
 package net.lazygun.micromuse;
 
+import net.lazygun.micromuse.async.Promise;
+import net.lazygun.micromuse.checkpoint.CheckpointWriter;
+import net.lazygun.micromuse.checkpoint.CrawlCheckpoint;
+import net.lazygun.micromuse.metrics.CrawlMetrics;
+import net.lazygun.micromuse.metrics.MeteredRoomService;
+import net.lazygun.micromuse.metrics.MeteredSession;
+import net.lazygun.micromuse.metrics.MetricsSnapshotWriter;
+import net.lazygun.micromuse.neo4j.GraphRoomService;
+import net.lazygun.micromuse.telnet.TelnetSessionFactory;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static net.lazygun.micromuse.metrics.Operation.*;
 
 /**
  *
@@ -12,72 +29,250 @@ public class Crawler implements Callable<Integer> {
 
     public static final String DB_PATH = "./db";
     public static final int CONCURRENT_CRAWLERS = 1;
+    public static final long METRICS_PERIOD_SECONDS = 10;
+    public static final long CHECKPOINT_PERIOD_SECONDS = 60;
+    public static final long START_DELAY_MILLIS = 1000;
 
-    public static void main(String[] args) {
+    private static final Logger log = Logger.getLogger(Crawler.class.getName());
 
+    /**
+     * Crawls the MUSE as the given player: {@code Crawler <player> <password> [checkpoint file]}.
+     * Given a checkpoint file, saves a checkpoint to it every {@link #CHECKPOINT_PERIOD_SECONDS}
+     * seconds, and if there's one there already, resumes from it.
+     */
+    public static void main(String[] args) throws IOException {
+        RoomService roomService = new GraphRoomService(DB_PATH);
+        CrawlMetrics metrics = new CrawlMetrics(roomService).register("crawl");
+        SessionFactory sessionFactory = new TelnetSessionFactory(new MeteredRoomService(roomService, metrics), args[0], args[1]);
+        CrawlCoordinator coordinator = new CrawlCoordinator(metrics, roomService.routeFinder());
+        File checkpoint = args.length > 2 ? new File(args[2]) : null;
+        if (checkpoint != null && checkpoint.exists()) {
+            coordinator.resume(CrawlCheckpoint.read(checkpoint), roomService);
+        }
+        MetricsSnapshotWriter snapshots = new MetricsSnapshotWriter(metrics, System.out, METRICS_PERIOD_SECONDS, TimeUnit.SECONDS);
+        CheckpointWriter checkpoints = checkpoint == null ? null :
+                new CheckpointWriter(coordinator, checkpoint, CHECKPOINT_PERIOD_SECONDS, TimeUnit.SECONDS);
+        try {
+            crawl(CONCURRENT_CRAWLERS, START_DELAY_MILLIS, roomService, sessionFactory, coordinator);
+        } finally {
+            if (checkpoints != null) {
+                checkpoints.close();
+            }
+            snapshots.close();
+            metrics.unregister();
+        }
     }
 
+    /**
+     * Crawls with metrics published over JMX, and written to stdout every
+     * {@link #METRICS_PERIOD_SECONDS} seconds, metering the room service if it isn't already. Only
+     * a session factory given a metered service has its sessions' lookups timed.
+     */
     public static long crawl(int threads, long delay, RoomService roomService, SessionFactory sessionFactory) {
-        ExecutorService executorService = Executors.newCachedThreadPool();
-        List<Future<Integer>> jobs = new ArrayList<>(threads);
-        jobs.add(executorService.submit(new Crawler(sessionFactory, roomService)));
-        for (int i = 1; i < threads; i++) {
-            try {
-                Thread.sleep(delay);
-                jobs.add(executorService.submit(new Crawler(sessionFactory, roomService)));
-            } catch (InterruptedException ignored) {
-            }
+        MeteredRoomService metered = roomService instanceof MeteredRoomService ? (MeteredRoomService) roomService
+                : new MeteredRoomService(roomService, new CrawlMetrics(roomService));
+        return crawl(threads, delay, metered, sessionFactory);
+    }
+
+    /**
+     * Crawls with the metered room service's metrics published over JMX, and written to stdout
+     * every {@link #METRICS_PERIOD_SECONDS} seconds. The session factory must have been given the
+     * metered service, for its sessions' lookups to be timed.
+     */
+    public static long crawl(int threads, long delay, MeteredRoomService roomService, SessionFactory sessionFactory) {
+        CrawlMetrics metrics = roomService.getMetrics().register("crawl");
+        MetricsSnapshotWriter snapshots = new MetricsSnapshotWriter(metrics, System.out, METRICS_PERIOD_SECONDS, TimeUnit.SECONDS);
+        try {
+            return crawl(threads, delay, roomService, sessionFactory, metrics);
+        } finally {
+            snapshots.close();
+            metrics.unregister();
         }
-        long totalLinks = 0;
-        for (int i = 1; i <= threads; i++) {
-            try {
-                Integer links = jobs.get(i-1).get();
-                System.out.println("Crawler thread " + i + " of " + threads + " completed. Created " + links + " links.");
-                totalLinks += links;
-            } catch (Exception e) {
-                System.err.println("Exception running crawler thread " + i + " of " + threads + ": " + e.getLocalizedMessage());
-                e.printStackTrace();
-            }
+    }
+
+    public static long crawl(int threads, long delay, RoomService roomService, SessionFactory sessionFactory, CrawlMetrics metrics) {
+        return crawl(threads, delay, roomService, sessionFactory, new CrawlCoordinator(metrics, roomService.routeFinder()));
+    }
+
+    /**
+     * Crawls until the given coordinator has nothing left to explore, starting a crawler every
+     * {@code delay} milliseconds.
+     */
+    public static long crawl(int threads, long delay, RoomService roomService, SessionFactory sessionFactory, CrawlCoordinator coordinator) {
+        try {
+            return new CrawlExecutor(roomService, coordinator)
+                    .addTarget(sessionFactory, threads, CrawlExecutor.UNLIMITED, delay)
+                    .run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
         }
-        return totalLinks;
     }
 
     private final Navigator navigator;
     private final RoomService roomService;
+    private final CrawlCoordinator coordinator;
+    private final int id;
+    private final CrawlMetrics metrics;
+    private final Semaphore writes;
+    private final LinkWriter writer;
+    private final AtomicInteger written = new AtomicInteger();
+    private Promise<Link> lastWrite;
 
     public Crawler(SessionFactory sessionFactory, RoomService roomService) {
-        this.navigator = new Navigator(sessionFactory.createSession());
+        this(sessionFactory, roomService, new CrawlCoordinator());
+    }
+
+    public Crawler(SessionFactory sessionFactory, RoomService roomService, CrawlCoordinator coordinator) {
+        this(sessionFactory, roomService, coordinator, new Semaphore(CrawlExecutor.UNLIMITED));
+    }
+
+    /**
+     * @param writes permits to link rooms, shared with other crawlers to limit how many of them
+     *               write to the room service at once
+     */
+    public Crawler(SessionFactory sessionFactory, RoomService roomService, CrawlCoordinator coordinator, Semaphore writes) {
+        this(sessionFactory, roomService, coordinator, writes, null);
+    }
+
+    /**
+     * @param writer if not null, the writer to hand links to rather than making them ourselves. Its
+     *               listeners, rather than the coordinator, must tell the coordinator's listeners
+     *               about each link.
+     */
+    public Crawler(SessionFactory sessionFactory, RoomService roomService, CrawlCoordinator coordinator, Semaphore writes,
+                   LinkWriter writer) {
+        this.metrics = coordinator.getMetrics();
+        this.writes = writes;
+        this.writer = writer;
+        this.navigator = new Navigator(new MeteredSession(sessionFactory.createSession(), metrics));
         this.roomService = roomService;
+        this.coordinator = coordinator;
+        this.id = coordinator.join();
     }
 
     @Override
     public Integer call() {
-        Integer links = 0;
+        resume();
         while (true) {
             Room room = navigator.currentRoom();
+            coordinator.moved(id, room);
+            Route route = null;
+            boolean writing = false;
+            Link toWrite = null;
+            Link made = null;
             try (Transaction tx = roomService.beginTransaction()) {
-                try {
-                    Route route = room.findNearestUnexplored();
-                    if (route == null) {
-                        break;
-                    }
-                    System.err.println(Thread.currentThread().getName() + " exploring " + route.last().getTo());
-                    Link lastStep = navigator.traverse(route);
+                long start = System.nanoTime();
+                route = coordinator.claim(room);
+                metrics.record(ROUTE_FINDING, start);
+                if (route == null) {
+                    break;
+                }
+                start = System.nanoTime();
+                Link lastStep = navigator.traverse(route, !coordinator.getRouteFinder().isPlanned());
+                metrics.record(TRAVERSAL, start);
+                if (writer == null) {
+                    writes.acquire();
+                    writing = true;
+                    start = System.nanoTime();
                     Room from = lastStep.getFrom();
-                    from.link(lastStep.getExit(), lastStep.getTo()).getTo();
-                    links++;
-                    tx.success();
-                } catch (TraversalException ex) {
-                    // Another crawler must be operating on this route,
-                    // so we just try again.
-                    System.err.println(ex.getLocalizedMessage());
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException ignored) {
-                    }
+                    Link link = from.link(lastStep.getExit(), lastStep.getTo());
+                    metrics.record(LINK, start);
+                    made = link;
+                    written.incrementAndGet();
+                    metrics.linkCreated();
+                } else {
+                    toWrite = lastStep;
+                }
+                tx.success();
+            } catch (TraversalException ex) {
+                // The claimed room can still turn out to be unreachable, for example if
+                // the map has changed underneath us. Give it back and look again. Our
+                // transaction has been rolled back, so the room we're standing in may
+                // have gone with it.
+                metrics.retry();
+                log.log(Level.FINE, "Giving up on route", ex);
+                navigator.look();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                // The transaction has been closed by now, so other crawlers will see our link
+                if (writing) {
+                    writes.release();
+                }
+                if (toWrite == null) {
+                    coordinator.release(route);
                 }
             }
+            if (made != null) {
+                // Only now that the link has been committed can the listeners pass it on
+                coordinator.linked(made);
+            }
+            if (toWrite != null) {
+                // Only now that the rooms we entered have been committed can the writer find them
+                writeBehind(toWrite, route);
+            }
+        }
+        awaitWrites();
+        coordinator.left(id);
+        navigator.close();
+        return written.get();
+    }
+
+    /**
+     * Goes to where one of the crawlers was when the crawl the coordinator resumed from was
+     * checkpointed, if there are any such rooms left, so as to start out near the frontier.
+     */
+    private void resume() {
+        try (Transaction tx = roomService.beginTransaction()) {
+            Room start = coordinator.startingRoom();
+            Route way = start == null ? null : coordinator.getRouteFinder().find(navigator.currentRoom(), start);
+            if (way != null) {
+                navigator.goTo(way, start);
+            }
+            tx.success();
+        } catch (TraversalException | RuntimeException ex) {
+            log.log(Level.FINE, "Couldn't go back to where we were", ex);
+        }
+    }
+
+    /**
+     * Hands a link to the writer, keeping the claim on its unexplored room until it's been made.
+     */
+    private void writeBehind(Link step, final Route claimed) {
+        lastWrite = writer.write(step.getFrom(), step.getExit(), step.getTo());
+        lastWrite.onComplete(new Promise.Listener<Link>() {
+            @Override
+            public void completed(Link link) {
+                written.incrementAndGet();
+                metrics.linkCreated();
+                coordinator.release(claimed);
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                metrics.retry();
+                log.log(Level.FINE, "Giving up on link", error);
+                coordinator.release(claimed);
+            }
+        });
+    }
+
+    /**
+     * Waits for the writer to finish with our links. It makes them in the order they were handed
+     * over, so once the last is done, they all are.
+     */
+    private void awaitWrites() {
+        if (lastWrite == null) {
+            return;
+        }
+        try {
+            lastWrite.get();
+        } catch (ExecutionException ignored) {
+            // Already counted as a retry
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-        return links;
     }
 }
@@ -0,0 +1,68 @@
+package net.lazygun.micromuse;
+
+import net.lazygun.micromuse.neo4j.RoomFingerprint;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rooms a route expects to pass through, resolved once before it's followed, each with a
+ * signature of how it looks: the same {@link RoomFingerprint} of its name, location and exits that
+ * the graph finds it by. A {@link Session} that sees a room with the expected signature can take
+ * it to be the expected room, rather than asking the room service which room it is, which is all
+ * the room service would have gone on anyway. Rooms
+ * that look different, and unexplored rooms, which have yet to be seen, are left to the room
+ * service.
+ *
+ * @author Ewan
+ */
+public class ExpectedRooms {
+
+    public static final ExpectedRooms NONE = new ExpectedRooms(Collections.<Room>emptyList());
+
+    private final Room[] rooms;
+    private final long[][] signatures;
+
+    public ExpectedRooms(List<Room> rooms) {
+        this.rooms = rooms.toArray(new Room[rooms.size()]);
+        this.signatures = new long[this.rooms.length][];
+        for (int i = 0; i < this.rooms.length; i++) {
+            signatures[i] = this.rooms[i].isUnexplored() ? null : signature(this.rooms[i]);
+        }
+    }
+
+    /**
+     * @return the rooms entered by each link of the route, in order
+     */
+    public static ExpectedRooms of(Route route) {
+        List<Room> rooms = new ArrayList<>(route.size());
+        for (Link link : route) {
+            rooms.add(link.getTo());
+        }
+        return new ExpectedRooms(rooms);
+    }
+
+    /**
+     * @return the room expected at the given step, if it's an explored room that looks just like
+     *         the room seen there, or null if the room seen has to be looked up
+     */
+    public Room match(int step, Room seen) {
+        if (step >= rooms.length || rooms[step].isUnexplored()) {
+            return null;
+        }
+        return Arrays.equals(signatures[step], signature(seen)) ? rooms[step] : null;
+    }
+
+    public int size() {
+        return rooms.length;
+    }
+
+    /**
+     * @return the fingerprint of the room's name, location and exits, whatever order the exits are in
+     */
+    public static long[] signature(Room room) {
+        return RoomFingerprint.of(room.getName(), room.getLocation(), room.getExits());
+    }
+}
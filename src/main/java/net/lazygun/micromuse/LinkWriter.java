@@ -0,0 +1,255 @@
+package net.lazygun.micromuse;
+
+import net.lazygun.micromuse.async.Promise;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes links behind the crawlers that discovered them, many to a transaction.
+ * <p>
+ * Crawlers hand their links to {@link #write(Room, String, Room)} and carry on. A single writer
+ * thread collects them into a batch, closed when it holds {@link #getBatchSize()} links or when
+ * the first of them has waited {@link #getMaxDelayMillis()}, and makes the whole batch in one
+ * transaction, so a commit (and its log flush) is shared by every link in it. Each link's promise
+ * completes once its batch has been committed, even if a listener then fails to hear about it.
+ * <p>
+ * The writer remembers which exits it has links waiting for, so a second link through the same
+ * exit, whose unexplored room would be replaced twice, fails with a
+ * {@link LinkAlreadyExistsException} straight away, just as it would once the first had been
+ * written. If anything else goes wrong part way through a batch, the batch is rolled back and its
+ * links are made one transaction at a time, so that only the link at fault fails.
+ * <p>
+ * A link is either queued before the writer is {@link #close() closed}, and written, or refused; if
+ * the writer thread stops early, whatever it left queued fails when it's closed.
+ *
+ * @author Ewan
+ */
+public class LinkWriter implements Closeable {
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 20;
+
+    private static final Logger log = Logger.getLogger(LinkWriter.class.getName());
+
+    private final RoomService roomService;
+    private final int batchSize;
+    private final long maxDelayMillis;
+    private final List<CrawlListener> listeners = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<PendingLink> queue = new LinkedBlockingQueue<>();
+    private final ConcurrentMap<String, PendingLink> pending = new ConcurrentHashMap<>();
+    private final Thread thread;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    // Held to queue a link, so that nothing is queued once the writer has been closed
+    private final ReadWriteLock closing = new ReentrantReadWriteLock();
+
+    private volatile boolean closed = false;
+
+    public LinkWriter(RoomService roomService) {
+        this(roomService, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param batchSize      the most links to make in one transaction
+     * @param maxDelayMillis the longest to hold a link back while waiting for others to join it
+     */
+    public LinkWriter(RoomService roomService, int batchSize, long maxDelayMillis) {
+        this.roomService = roomService;
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBatches();
+            }
+        }, "LinkWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds a listener to be told about each link once the transaction that makes it has been
+     * committed, before the link's promise completes.
+     */
+    public void addListener(CrawlListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Queues up a link, through an exit that leads to an unexplored room, to be made.
+     *
+     * @return a promise of the link made, completed once it has been committed
+     */
+    public Promise<Link> write(Room from, String exit, Room to) {
+        closing.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("LinkWriter has been closed");
+            }
+            PendingLink link = new PendingLink(from, exit, to);
+            PendingLink waiting = pending.putIfAbsent(link.key, link);
+            if (waiting != null) {
+                return Promise.failed(new LinkAlreadyExistsException(new Link(from, exit, waiting.to)));
+            }
+            queue.add(link);
+            return link.promise;
+        } finally {
+            closing.readLock().unlock();
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    /**
+     * @return the number of transactions committed so far
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return the number of links made so far
+     */
+    public long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Writes every link already queued, and stops.
+     */
+    @Override
+    public void close() {
+        closing.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closing.writeLock().unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        for (PendingLink link = queue.poll(); link != null; link = queue.poll()) {
+            finish(link, null, new IllegalStateException("LinkWriter was closed before " + link.key + " was written"));
+        }
+    }
+
+    private void writeBatches() {
+        List<PendingLink> batch = new ArrayList<>(batchSize);
+        try {
+            while (!closed || !queue.isEmpty()) {
+                PendingLink first = queue.poll(maxDelayMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < batchSize) {
+                    PendingLink next = queue.poll(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commit(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            for (PendingLink link : batch) {
+                finish(link, null, e);
+            }
+        }
+    }
+
+    private void commit(List<PendingLink> batch) {
+        Link[] made = new Link[batch.size()];
+        Throwable[] errors = new Throwable[batch.size()];
+        try (Transaction tx = roomService.beginTransaction()) {
+            for (int i = 0; i < batch.size(); i++) {
+                PendingLink link = batch.get(i);
+                try {
+                    made[i] = link.from.link(link.exit, link.to);
+                } catch (LinkAlreadyExistsException e) {
+                    // Nothing was changed, so the rest of the batch can go ahead
+                    errors[i] = e;
+                }
+            }
+            tx.success();
+        } catch (TraversalException | RuntimeException e) {
+            if (batch.size() > 1) {
+                log.log(Level.FINE, "Batch of " + batch.size() + " links failed, retrying one at a time", e);
+                for (PendingLink link : batch) {
+                    commit(Collections.singletonList(link));
+                }
+            } else {
+                finish(batch.get(0), null, e);
+            }
+            return;
+        }
+        batches.incrementAndGet();
+        for (Link link : made) {
+            if (link != null) {
+                tell(link);
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            finish(batch.get(i), made[i], errors[i]);
+        }
+    }
+
+    /**
+     * Tells the listeners about a committed link. The link has been made whatever they do with it,
+     * so one that fails is only logged.
+     */
+    private void tell(Link link) {
+        for (CrawlListener listener : listeners) {
+            try {
+                listener.linked(link);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Couldn't pass on " + link, e);
+            }
+        }
+    }
+
+    private void finish(PendingLink link, Link made, Throwable error) {
+        pending.remove(link.key, link);
+        if (error == null) {
+            written.incrementAndGet();
+            link.promise.complete(made);
+        } else {
+            link.promise.fail(error);
+        }
+    }
+
+    private static class PendingLink {
+        private final Room from;
+        private final String exit;
+        private final Room to;
+        private final String key;
+        private final Promise<Link> promise = new Promise<>();
+
+        private PendingLink(Room from, String exit, Room to) {
+            this.from = from;
+            this.exit = exit;
+            this.to = to;
+            this.key = from.getId() + "/" + exit;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package net.lazygun.micromuse;
+
+import java.util.*;
+
+/**
+ * Hashed indexes over a map given as a list of links: from each room and exit to the room on the
+ * other side, and from each location to its teleportable room. Rooms are told apart by identity,
+ * so two rooms that happen to look alike stay distinct. Built once, and safe to share between any
+ * number of sessions replaying the same map.
+ *
+ * @author Ewan
+ */
+public class MapIndex {
+
+    private final Room firstRoom;
+    private final Map<Room, Map<String, Room>> exits = new IdentityHashMap<>();
+    private final Map<String, Room> locations = new HashMap<>();
+
+    public MapIndex(List<Link> links) {
+        firstRoom = links.get(0).getFrom();
+        for (Link link : links) {
+            add(link.getFrom()).put(link.getExit(), link.getTo());
+            add(link.getTo());
+        }
+    }
+
+    private Map<String, Room> add(Room room) {
+        Map<String, Room> roomExits = exits.get(room);
+        if (roomExits == null) {
+            roomExits = new HashMap<>();
+            exits.put(room, roomExits);
+            if (room.isTeleportable() && !locations.containsKey(room.getLocation())) {
+                locations.put(room.getLocation(), room);
+            }
+        }
+        return roomExits;
+    }
+
+    public Room getFirstRoom() {
+        return firstRoom;
+    }
+
+    public Set<Room> getRooms() {
+        return Collections.unmodifiableSet(exits.keySet());
+    }
+
+    /**
+     * @return the room on the other side of the given exit, or null if the map doesn't have it
+     */
+    public Room exit(Room from, String exit) {
+        Map<String, Room> roomExits = exits.get(from);
+        return roomExits == null ? null : roomExits.get(exit);
+    }
+
+    /**
+     * @return the teleportable room at the given location, or null if there isn't one
+     */
+    public Room teleport(String location) {
+        return locations.get(location);
+    }
+}
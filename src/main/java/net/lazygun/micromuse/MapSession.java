@@ -11,56 +11,92 @@ import java.util.List;
 public class MapSession implements Session {
 
     private final RoomService roomService;
-    private final List<Link> links;
+    private final MapIndex map;
 
+    private Room currentExample;
     private Room currentRoom;
 
     public MapSession(RoomService roomService, List<Link> links) {
+        this(roomService, new MapIndex(links));
+    }
+
+    public MapSession(RoomService roomService, MapIndex map) {
         this.roomService = roomService;
-        this.links = new ArrayList<>(links);
-        Room firstRoom = links.get(0).getFrom();
+        this.map = map;
+        currentExample = map.getFirstRoom();
+        look();
+    }
+
+    @Override
+    public Room getCurrentRoom() {
+        return currentRoom;
+    }
+
+    @Override
+    public Room look() {
         try (Transaction tx = roomService.beginTransaction()) {
-            currentRoom = roomService.findOrCreate(firstRoom);
+            currentRoom = roomService.findOrCreate(currentExample);
             tx.success();
         }
+        return currentRoom;
     }
 
     @Override
-    public Room getCurrentRoom() {
+    public Room teleport(String location) {
+        Room target = map.teleport(location);
+        if (target == null) {
+            throw new IllegalArgumentException("No room with location '" + location + "' exists.");
+        }
+        currentRoom = roomService.findOrCreate(target);
+        currentExample = target;
         return currentRoom;
     }
 
     @Override
-    public Room teleport(String location) {
-        for (Link link : links) {
-            if (link.getFrom().isTeleportable() && link.getFrom().getLocation().equals(location)) {
-                currentRoom = roomService.findOrCreate(link.getFrom());
-                return currentRoom;
-            }
-            if (link.getTo().isTeleportable() && link.getTo().getLocation().equals(location)) {
-                currentRoom = roomService.findOrCreate(link.getTo());
-                return currentRoom;
+    public Room exit(String exit) throws TraversalException {
+        return exit(exit, ExpectedRooms.NONE, 0);
+    }
+
+    private Room exit(String exit, ExpectedRooms expected, int step) throws TraversalException {
+        Room next = map.exit(currentExample, exit);
+        if (next == null) {
+            if (currentExample.getExits().contains(exit)) {
+                throw new IllegalStateException("This exit isn't in the map: " + exit);
             }
+            throw new IllegalArgumentException("The current room has no exit name '" + exit + "'");
+        }
+        Room match = expected.match(step, next);
+        if (match != null) {
+            currentRoom = match;
+            currentExample = next;
+            return currentRoom;
         }
-        throw new IllegalArgumentException("No room with location '" + location + "' exists.");
+        try {
+            currentRoom = roomService.findOrCreate(next);
+            currentExample = next;
+        } catch (Exception e) {
+            throw new TraversalException(e);
+        }
+        return currentRoom;
     }
 
     @Override
-    public Room exit(String exit) throws TraversalException {
-        if (currentRoom.getExits().contains(exit)) {
-            for (Link link : links) {
-                if (link.getFrom().getName().equals(currentRoom.getName()) && link.getExit().equals(exit)) {
-                    try {
-                        currentRoom = roomService.findOrCreate(link.getTo());
-                    } catch (Exception e) {
-                        throw new TraversalException(e);
-                    }
-                    return currentRoom;
-                }
+    public List<Room> exit(List<String> exits) throws TraversalException {
+        return exit(exits, ExpectedRooms.NONE);
+    }
+
+    @Override
+    public List<Room> exit(List<String> exits, ExpectedRooms expected) throws TraversalException {
+        List<Room> entered = new ArrayList<>(exits.size());
+        for (int i = 0; i < exits.size(); i++) {
+            try {
+                entered.add(exit(exits.get(i), expected, i));
+            } catch (IllegalArgumentException e) {
+                // An earlier move took us somewhere other than expected
+                throw new TraversalException(e);
             }
-            throw new IllegalStateException("This exit isn't in the map: " + exit);
         }
-        throw new IllegalArgumentException("The current room has no exit name '" + exit + "'");
+        return entered;
     }
 
     @Override
@@ -10,16 +10,20 @@ import java.util.List;
  */
 public class MapSessionFactory implements SessionFactory {
 
-    private final List<Link> links;
+    private final MapIndex map;
     private final RoomService roomService;
 
     public MapSessionFactory(List<Link> links, RoomService roomService) {
-        this.links = links;
+        this(new MapIndex(links), roomService);
+    }
+
+    public MapSessionFactory(MapIndex map, RoomService roomService) {
+        this.map = map;
         this.roomService = roomService;
     }
 
     @Override
     public Session createSession() {
-        return new MapSession(roomService, links);
+        return new MapSession(roomService, map);
     }
 }
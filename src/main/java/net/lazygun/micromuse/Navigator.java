@@ -1,27 +1,80 @@
 package net.lazygun.micromuse;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 /**
  *
  * @author Ewan
  */
 public class Navigator {
 
+    private static final Logger log = Logger.getLogger(Navigator.class.getName());
+
     private final Session session;
+    private final boolean resolveAhead;
 
     public Navigator(Session session) {
+        this(session, true);
+    }
+
+    /**
+     * @param resolveAhead if set, the rooms a route expects are worked out once before it's
+     *                     followed, and the session takes any room that looks like the one expected
+     *                     to be it, so only rooms that don't, and unexplored rooms, are looked up in
+     *                     the room service along the way. Otherwise every room entered is looked up.
+     */
+    public Navigator(Session session, boolean resolveAhead) {
         this.session = session;
+        this.resolveAhead = resolveAhead;
     }
 
     Room currentRoom() {
         return session.getCurrentRoom();
     }
 
+    Room look() {
+        return session.look();
+    }
+
+    Room teleport(String location) {
+        return session.teleport(location);
+    }
+
+    /**
+     * Closes the session, for when there's nowhere left to go.
+     */
+    void close() {
+        try {
+            session.close();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Couldn't close session", e);
+        }
+    }
+
     Link traverse(Route route) throws TraversalException {
+        return traverse(route, true);
+    }
+
+    /**
+     * Follows a route to its end. If optimise is set, teleports to the last teleportable room on
+     * the route first; otherwise only teleports when the route doesn't start where we are, which is how a
+     * planned route that has already weighed up its teleports should be followed.
+     */
+    Link traverse(Route route, boolean optimise) throws TraversalException {
+        if (route.size() == 0) {
+            throw new IllegalArgumentException("An empty Route leads nowhere: use goTo to follow one to a room");
+        }
         if (route.last().getTo().isTeleportable()) {
             session.teleport(route.last().getTo().getLocation());
             return route.last();
         }
-        route = optimiseRoute(route);
+        if (optimise) {
+            route = route.fromLastTeleportable();
+        }
         Link first = route.first();
         if (!first.getFrom().equals(currentRoom())) {
             if (!first.getFrom().isTeleportable()) {
@@ -29,45 +82,45 @@ public class Navigator {
             }
             session.teleport(first.getFrom().getLocation());
         }
-        Link last = first;
+        List<String> exits = new ArrayList<>(route.size());
         for (Link link : route) {
-            last = follow(link);
+            exits.add(link.getExit());
         }
-        return last;
+        return verify(route, session.exit(exits, resolveAhead ? ExpectedRooms.of(route) : ExpectedRooms.NONE));
     }
 
-    private Route optimiseRoute(Route route) {
-        if (countTeleportableRooms(route) > 0) {
-            while (!route.first().getFrom().isTeleportable() || countTeleportableRooms(route) > 1) {
-                route = route.tail();
-            }
+    /**
+     * Follows a route planned to the given room as it is. An empty route means the room is best
+     * teleported to, unless we're already there.
+     *
+     * @return the room we end up in
+     */
+    Room goTo(Route planned, Room to) throws TraversalException {
+        if (planned.size() > 0) {
+            return traverse(planned, false).getTo();
         }
-        return route;
+        return to.equals(currentRoom()) ? currentRoom() : session.teleport(to.getLocation());
     }
 
-    private int countTeleportableRooms(Route route) {
-        int count = 0;
+    /**
+     * Checks that the rooms the session passed through are the ones the route said it would, now
+     * that the whole route has been sent. Rooms the session matched to the route's are the route's
+     * own, so only those it had to look up cost more than a reference comparison.
+     */
+    private Link verify(Route route, List<Room> entered) throws TraversalException {
+        Link last = null;
+        int i = 0;
         for (Link link : route) {
-            if (link.getFrom().isTeleportable()) {
-                count++;
+            Room room = entered.get(i++);
+            if (link.getTo().isUnexplored()) {
+                last = new Link(link.getFrom(), link.getExit(), room);
+            } else if (room.equals(link.getTo())) {
+                last = link;
+            } else {
+                throw new UnexpectedRoomException("Room entered into is not the same as Link to Room", link.getTo(), room);
             }
         }
-        return count;
-    }
-
-    private Link follow(Link link) throws TraversalException {
-        Room currentRoom = currentRoom();
-        if (!currentRoom.equals(link.getFrom())) {
-            throw new UnexpectedRoomException("Room trying to exit is not the same as Link from Room", link.getFrom(), currentRoom);
-        }
-        currentRoom = session.exit(link.getExit());
-        if (link.getTo().isUnexplored()) {
-            return new Link(link.getFrom(), link.getExit(), currentRoom);
-        } else if (currentRoom().equals(link.getTo())) {
-            return link;
-        } else {
-            throw new UnexpectedRoomException("Room entered into is not the same as Link to Room", link.getTo(), currentRoom);
-        }
+        return last;
     }
 
 }
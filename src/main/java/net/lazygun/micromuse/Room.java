@@ -1,6 +1,7 @@
 package net.lazygun.micromuse;
 
 import java.util.List;
+import java.util.Set;
 
 /**
  * TODO: Write Javadocs for this class.
@@ -28,5 +29,7 @@ public interface Room {
 
     public Route findNearestUnexplored() throws TraversalException;
 
+    public Route findNearestUnexplored(Set<Long> excluding) throws TraversalException;
+
     public Room exit(String exit) throws TraversalException;
 }
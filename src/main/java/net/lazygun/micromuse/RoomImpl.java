@@ -79,6 +79,11 @@ public class RoomImpl implements Room {
         throw new UnsupportedOperationException("Not implemented");
     }
 
+    @Override
+    public Route findNearestUnexplored(Set<Long> excluding) {
+        throw new UnsupportedOperationException("Not implemented");
+    }
+
     public RoomImpl exit(String exit) {
         throw new UnsupportedOperationException("Not implemented");
     }
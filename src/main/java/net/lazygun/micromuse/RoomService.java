@@ -1,5 +1,7 @@
 package net.lazygun.micromuse;
 
+import java.util.List;
+
 /**
  *
  * @author Ewan
@@ -9,5 +11,28 @@ public interface RoomService {
 
     public Room findOrCreate(Room room);
 
+    /**
+     * Finds or creates each of the given rooms, as {@link #findOrCreate(Room)} would, but as one
+     * batch where the service can.
+     *
+     * @return the rooms, in the same order
+     */
+    public List<Room> findOrCreateAll(List<? extends Room> rooms);
+
+    /**
+     * @return the room with the given id, or null if there isn't one, or it has gone
+     */
+    public Room findById(long id);
+
+    /**
+     * @return the number of unexplored rooms known of, counted in a transaction of its own
+     */
+    public long countUnexplored();
+
+    /**
+     * @return the best way to find routes through this service's rooms
+     */
+    public RouteFinder routeFinder();
+
     public Transaction beginTransaction();
 }
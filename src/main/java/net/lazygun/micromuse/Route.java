@@ -3,70 +3,121 @@ package net.lazygun.micromuse;
 import java.util.*;
 
 /**
- * TODO: Write Javadocs for this class.
+ * An immutable path of links. Sub-routes made by {@link #head()}, {@link #tail()} and
+ * {@link #fromLastTeleportable()} are views over the same backing array as the route they came
+ * from, so making one never copies the path.
  * Created: 24/03/2014 12:45
  *
  * @author Ewan
  */
 public class Route implements Iterable<Link> {
 
-    private final List<Link> path;
+    private static final Link[] NO_LINKS = new Link[0];
+
+    private final Link[] links;
+    /** For each position in {@link #links}, the nearest position at or before it whose from room is teleportable, or -1 */
+    private final int[] lastTeleportable;
+    private final int offset;
+    private final int length;
 
     public Route(List<Link> path) {
-        this.path = new ArrayList<>(path);
+        this.links = path.toArray(NO_LINKS);
+        this.lastTeleportable = new int[links.length];
+        int last = -1;
+        for (int i = 0; i < links.length; i++) {
+            if (links[i].getFrom().isTeleportable()) {
+                last = i;
+            }
+            lastTeleportable[i] = last;
+        }
+        this.offset = 0;
+        this.length = links.length;
+    }
+
+    private Route(Route route, int offset, int length) {
+        this.links = route.links;
+        this.lastTeleportable = route.lastTeleportable;
+        this.offset = offset;
+        this.length = length;
     }
 
     public Route head() {
-        return size() > 1 ? new Route(path.subList(0, path.size() - 1)) : new Route(Collections.<Link>emptyList());
+        return new Route(this, offset, size() > 1 ? length - 1 : 0);
     }
 
     public Route tail() {
-        return size() > 1 ? new Route(path.subList(1, path.size())) : new Route(Collections.<Link>emptyList());
+        return size() > 1 ? new Route(this, offset + 1, length - 1) : new Route(this, offset, 0);
+    }
+
+    /**
+     * @return the part of this route that starts from the last teleportable room on it, or this
+     *         route if it passes through no teleportable rooms
+     */
+    public Route fromLastTeleportable() {
+        if (length == 0) {
+            return this;
+        }
+        int start = lastTeleportable[offset + length - 1];
+        return start > offset ? new Route(this, start, offset + length - start) : this;
     }
 
     public Link first() {
-        return size() > 0 ? path.get(0) : null;
+        return size() > 0 ? links[offset] : null;
     }
 
     public Link last() {
-        return size() > 0 ? path.get(size() - 1) : null;
+        return size() > 0 ? links[offset + length - 1] : null;
+    }
+
+    public Link get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + length);
+        }
+        return links[offset + index];
     }
 
     public int size() {
-        return path.size();
+        return length;
     }
 
     public ListIterator<Link> iterator() {
-        final ListIterator<Link> iterator = path.listIterator();
         return new ListIterator<Link>() {
+            private int next = 0;
+
             @Override
             public boolean hasNext() {
-                return iterator.hasNext();
+                return next < length;
             }
 
             @Override
             public Link next() {
-                return iterator.next();
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return links[offset + next++];
             }
 
             @Override
             public boolean hasPrevious() {
-                return iterator.hasPrevious();
+                return next > 0;
             }
 
             @Override
             public Link previous() {
-                return iterator.previous();
+                if (!hasPrevious()) {
+                    throw new NoSuchElementException();
+                }
+                return links[offset + --next];
             }
 
             @Override
             public int nextIndex() {
-                return iterator.nextIndex();
+                return next;
             }
 
             @Override
             public int previousIndex() {
-                return iterator.previousIndex();
+                return next - 1;
             }
 
             @Override
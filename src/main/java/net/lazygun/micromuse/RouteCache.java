@@ -0,0 +1,93 @@
+package net.lazygun.micromuse;
+
+import net.lazygun.micromuse.metrics.CrawlMetrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A bounded, least-recently-used cache of nearest-unexplored searches, keyed by the room searched
+ * from, for a {@link CrawlCoordinator} whose crawlers keep searching from the same rooms (its entry
+ * points) while they wait for something to explore. A search that found nothing is cached too.
+ * <p>
+ * Each search is stamped with the coordinator's version when it was made, which moves on whenever
+ * a claim is given back or lapses: that's when a room hidden from the search can come back, or the
+ * link made for the claim may have opened up a shorter way somewhere. Until then, the unexplored
+ * rooms a search could find only get fewer, as they're claimed or reserved, so what it found is
+ * still the nearest as long as it hasn't been claimed itself, and if it found nothing, there's
+ * still nothing.
+ *
+ * @author Ewan
+ */
+public class RouteCache {
+
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final CrawlMetrics metrics;
+    private final RouteFinder finder;
+    private final Map<Long, Search> searches;
+
+    public RouteCache(int maxSize, CrawlMetrics metrics) {
+        this(maxSize, metrics, RouteFinder.NEAREST);
+    }
+
+    /**
+     * @param finder how to search when a search isn't in the cache
+     */
+    public RouteCache(final int maxSize, CrawlMetrics metrics, RouteFinder finder) {
+        this.metrics = metrics;
+        this.finder = finder;
+        this.searches = new LinkedHashMap<Long, Search>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Search> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Finds the nearest unexplored room to the given room that isn't excluded, from the cache if
+     * it was searched for at the same version, and its room hasn't been excluded since.
+     *
+     * @param version the coordinator's version, read before the excluded set
+     * @return the route to it, or null if there isn't one
+     */
+    public Route find(Room from, Set<Long> excluding, long version) throws TraversalException {
+        synchronized (this) {
+            Search search = searches.get(from.getId());
+            if (search != null && search.version == version &&
+                (search.route == null || !excluding.contains(search.route.last().getTo().getId()))) {
+                metrics.routeCacheHit();
+                return search.route;
+            }
+        }
+        metrics.routeCacheMiss();
+        Route route = finder.findNearestUnexplored(from, excluding);
+        synchronized (this) {
+            Search search = searches.get(from.getId());
+            if (search == null || search.version <= version) {
+                searches.put(from.getId(), new Search(route, version));
+            }
+        }
+        return route;
+    }
+
+    public synchronized int size() {
+        return searches.size();
+    }
+
+    public synchronized void clear() {
+        searches.clear();
+    }
+
+    private static class Search {
+        private final Route route;
+        private final long version;
+
+        private Search(Route route, long version) {
+            this.route = route;
+            this.version = version;
+        }
+    }
+}
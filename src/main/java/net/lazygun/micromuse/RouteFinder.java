@@ -0,0 +1,55 @@
+package net.lazygun.micromuse;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * How a {@link CrawlCoordinator} finds its crawlers somewhere to go. A room service offers the
+ * best it can for its rooms through {@link RoomService#routeFinder()}.
+ *
+ * @author Ewan
+ */
+public interface RouteFinder {
+
+    /**
+     * Searches out from the room itself with {@link Room#findNearestUnexplored(Set)}, for the
+     * fewest exits. Routes found this way are followed from their last teleportable room.
+     */
+    RouteFinder NEAREST = new RouteFinder() {
+        @Override
+        public Route findNearestUnexplored(Room from, Set<Long> excluding) throws TraversalException {
+            return from.findNearestUnexplored(excluding);
+        }
+
+        @Override
+        public Route find(Room from, Room to) {
+            if (from.equals(to) || to.isTeleportable()) {
+                return new Route(Collections.<Link>emptyList());
+            }
+            return null;
+        }
+
+        @Override
+        public boolean isPlanned() {
+            return false;
+        }
+    };
+
+    /**
+     * @return a route from the given room to an unexplored room not in the excluded set, or null
+     *         if there isn't one. Must be called in a transaction.
+     */
+    Route findNearestUnexplored(Room from, Set<Long> excluding) throws TraversalException;
+
+    /**
+     * @return a route from one room to another, which is empty if the room is best teleported to,
+     *         or there already; or null if there isn't one. Must be called in a transaction.
+     */
+    Route find(Room from, Room to) throws TraversalException;
+
+    /**
+     * @return true if the routes found have already weighed up where to teleport to, and must be
+     *         followed as they are
+     */
+    boolean isPlanned();
+}
@@ -1,6 +1,7 @@
 package net.lazygun.micromuse;
 
 import java.io.Closeable;
+import java.util.List;
 
 /**
  * TODO: Write Javadocs for this class.
@@ -14,6 +15,19 @@ public interface Session extends Closeable {
     public static final Integer PORT = 4201;
 
     Room getCurrentRoom();
+    Room look();
     Room teleport(String location);
     Room exit(String exit) throws TraversalException;
+
+    /**
+     * Goes through each of the given exits in turn, and returns every room entered along the way.
+     * Implementations may send all the moves before finding out where any of them led.
+     */
+    List<Room> exit(List<String> exits) throws TraversalException;
+
+    /**
+     * Goes through each of the given exits in turn, as {@link #exit(List)} does, but takes each room
+     * that looks like the room expected at that step to be it, without looking it up.
+     */
+    List<Room> exit(List<String> exits, ExpectedRooms expected) throws TraversalException;
 }
@@ -0,0 +1,83 @@
+package net.lazygun.micromuse;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A {@link Session} that takes a permit from a semaphore shared by every session on the same server
+ * for each command it sends, so no more than a set number of commands are in flight to the server
+ * at once, however many sessions there are.
+ *
+ * @author Ewan
+ */
+public class ThrottledSession implements Session {
+
+    private final Session session;
+    private final Semaphore permits;
+
+    public ThrottledSession(Session session, Semaphore permits) {
+        this.session = session;
+        this.permits = permits;
+    }
+
+    @Override
+    public Room getCurrentRoom() {
+        return session.getCurrentRoom();
+    }
+
+    @Override
+    public Room look() {
+        permits.acquireUninterruptibly();
+        try {
+            return session.look();
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public Room teleport(String location) {
+        permits.acquireUninterruptibly();
+        try {
+            return session.teleport(location);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public Room exit(String exit) throws TraversalException {
+        permits.acquireUninterruptibly();
+        try {
+            return session.exit(exit);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public List<Room> exit(List<String> exits) throws TraversalException {
+        permits.acquireUninterruptibly();
+        try {
+            return session.exit(exits);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public List<Room> exit(List<String> exits, ExpectedRooms expected) throws TraversalException {
+        permits.acquireUninterruptibly();
+        try {
+            return session.exit(exits, expected);
+        } finally {
+            permits.release();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        session.close();
+    }
+}
@@ -0,0 +1,76 @@
+package net.lazygun.micromuse.async;
+
+import net.lazygun.micromuse.*;
+
+/**
+ * Follows routes through an {@link AsyncSession}, the way {@link Navigator} does through a
+ * blocking one. Every move on the route is sent at once, and each room entered is checked against
+ * the route as its reply comes in, while the moves after it are still on their way. The promised
+ * link fails with an {@link UnexpectedRoomException} at the first room that isn't the one expected.
+ *
+ * @author Ewan
+ */
+public class AsyncNavigator {
+
+    private final AsyncSession session;
+
+    public AsyncNavigator(AsyncSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Follows a route to its end, teleporting to the last teleportable room on it first.
+     *
+     * @return a promise of the last link on the route, leading to the room actually entered
+     */
+    public Promise<Link> traverse(Route route) {
+        if (route.last().getTo().isTeleportable()) {
+            final Link last = route.last();
+            return session.teleport(last.getTo().getLocation()).then(new Promise.Step<Room, Link>() {
+                @Override
+                public Promise<Link> apply(Room room) {
+                    return Promise.of(last);
+                }
+            });
+        }
+        route = route.fromLastTeleportable();
+        Link first = route.first();
+        Promise<Link> verified = Promise.of(null);
+        if (!first.getFrom().equals(session.getCurrentRoom())) {
+            if (!first.getFrom().isTeleportable()) {
+                return Promise.failed(new IllegalArgumentException("Cannot traverse a Route that doesn't contain a teleportable room"));
+            }
+            verified = session.teleport(first.getFrom().getLocation()).then(new Promise.Step<Room, Link>() {
+                @Override
+                public Promise<Link> apply(Room room) {
+                    return Promise.of(null);
+                }
+            });
+        }
+        for (final Link link : route) {
+            final Promise<Room> entered = session.exit(link.getExit());
+            verified = verified.then(new Promise.Step<Link, Link>() {
+                @Override
+                public Promise<Link> apply(Link previous) {
+                    return entered.then(new Promise.Step<Room, Link>() {
+                        @Override
+                        public Promise<Link> apply(Room room) {
+                            return verify(link, room);
+                        }
+                    });
+                }
+            });
+        }
+        return verified;
+    }
+
+    private static Promise<Link> verify(Link link, Room room) {
+        if (link.getTo().isUnexplored()) {
+            return Promise.of(new Link(link.getFrom(), link.getExit(), room));
+        }
+        if (room.equals(link.getTo())) {
+            return Promise.of(link);
+        }
+        return Promise.failed(new UnexpectedRoomException("Room entered into is not the same as Link to Room", link.getTo(), room));
+    }
+}
@@ -0,0 +1,33 @@
+package net.lazygun.micromuse.async;
+
+import net.lazygun.micromuse.Room;
+
+import java.util.List;
+
+/**
+ * A {@link net.lazygun.micromuse.Session} whose commands return straight away, with a promise of
+ * the room they lead to. Commands are carried out in the order they're given, so a whole route can
+ * be sent without waiting for any of it.
+ *
+ * @author Ewan
+ */
+public interface AsyncSession {
+
+    /**
+     * @return the room the session was in after its last completed command
+     */
+    Room getCurrentRoom();
+
+    Promise<Room> look();
+
+    Promise<Room> teleport(String location);
+
+    Promise<Room> exit(String exit);
+
+    Promise<List<Room>> exit(List<String> exits);
+
+    /**
+     * Closes the session once every command already given has been carried out.
+     */
+    Promise<Void> close();
+}
@@ -0,0 +1,167 @@
+package net.lazygun.micromuse.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The result of an operation that may not have finished yet, which further steps can be chained
+ * onto. A cut-down CompletableFuture for Java 7: a promise is completed (or failed) once, and its
+ * listeners are run by whichever thread completes it, or straight away if it's already complete.
+ * Promises can't be cancelled.
+ *
+ * @author Ewan
+ */
+public class Promise<T> implements Future<T> {
+
+    /**
+     * The next step in a pipeline, started with the result of the one before.
+     */
+    public interface Step<T, R> {
+        Promise<R> apply(T value) throws Exception;
+    }
+
+    public interface Listener<T> {
+        void completed(T value);
+
+        void failed(Throwable error);
+    }
+
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final List<Listener<? super T>> listeners = new ArrayList<>();
+
+    private T value;
+    private Throwable error;
+
+    public static <T> Promise<T> of(T value) {
+        Promise<T> promise = new Promise<>();
+        promise.complete(value);
+        return promise;
+    }
+
+    public static <T> Promise<T> failed(Throwable error) {
+        Promise<T> promise = new Promise<>();
+        promise.fail(error);
+        return promise;
+    }
+
+    /**
+     * @return true if this call completed the promise, false if it was already complete
+     */
+    public boolean complete(T value) {
+        return finish(value, null);
+    }
+
+    /**
+     * @return true if this call failed the promise, false if it was already complete
+     */
+    public boolean fail(Throwable error) {
+        return finish(null, error);
+    }
+
+    private boolean finish(T value, Throwable error) {
+        List<Listener<? super T>> toNotify;
+        synchronized (this) {
+            if (isDone()) {
+                return false;
+            }
+            this.value = value;
+            this.error = error;
+            done.countDown();
+            toNotify = new ArrayList<>(listeners);
+            listeners.clear();
+        }
+        for (Listener<? super T> listener : toNotify) {
+            notify(listener);
+        }
+        return true;
+    }
+
+    public void onComplete(Listener<? super T> listener) {
+        synchronized (this) {
+            if (!isDone()) {
+                listeners.add(listener);
+                return;
+            }
+        }
+        notify(listener);
+    }
+
+    private void notify(Listener<? super T> listener) {
+        if (error == null) {
+            listener.completed(value);
+        } else {
+            listener.failed(error);
+        }
+    }
+
+    /**
+     * @return a promise of the result of the given step, started once this promise completes.
+     *         If this promise fails, or the step throws, the returned promise fails in the same way.
+     */
+    public <R> Promise<R> then(final Step<? super T, R> step) {
+        final Promise<R> next = new Promise<>();
+        onComplete(new Listener<T>() {
+            @Override
+            public void completed(T value) {
+                try {
+                    step.apply(value).onComplete(new Listener<R>() {
+                        @Override
+                        public void completed(R result) {
+                            next.complete(result);
+                        }
+
+                        @Override
+                        public void failed(Throwable error) {
+                            next.fail(error);
+                        }
+                    });
+                } catch (Exception e) {
+                    next.fail(e);
+                }
+            }
+
+            @Override
+            public void failed(Throwable error) {
+                next.fail(error);
+            }
+        });
+        return next;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (error != null) {
+            throw new ExecutionException(error);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,136 @@
+package net.lazygun.micromuse.async;
+
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.Session;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * An {@link AsyncSession} over an ordinary {@link Session}, whose commands are queued up and run
+ * one at a time on an executor that may be shared with any number of other sessions. Only one
+ * command per session is handed to the executor at a time, and each session gives up its turn
+ * after every command, so a single thread can take turns between many sessions. That pays off when
+ * the sessions' commands don't block, as with a {@link net.lazygun.micromuse.MapSession}; a
+ * blocking session still ties up a thread for each command it's waiting on.
+ *
+ * @author Ewan
+ */
+public class SerialAsyncSession implements AsyncSession {
+
+    private final Session session;
+    private final Executor executor;
+    private final Queue<Runnable> commands = new ArrayDeque<>();
+    private final Runnable runNext = new Runnable() {
+        @Override
+        public void run() {
+            Runnable command;
+            synchronized (commands) {
+                command = commands.poll();
+            }
+            command.run();
+            synchronized (commands) {
+                if (commands.isEmpty()) {
+                    running = false;
+                } else {
+                    executor.execute(runNext);
+                }
+            }
+        }
+    };
+
+    private boolean running = false;
+    private volatile Room currentRoom;
+
+    public SerialAsyncSession(Session session, Executor executor) {
+        this.session = session;
+        this.executor = executor;
+        this.currentRoom = session.getCurrentRoom();
+    }
+
+    @Override
+    public Room getCurrentRoom() {
+        return currentRoom;
+    }
+
+    @Override
+    public Promise<Room> look() {
+        return submit(new Callable<Room>() {
+            @Override
+            public Room call() {
+                return session.look();
+            }
+        });
+    }
+
+    @Override
+    public Promise<Room> teleport(final String location) {
+        return submit(new Callable<Room>() {
+            @Override
+            public Room call() {
+                return session.teleport(location);
+            }
+        });
+    }
+
+    @Override
+    public Promise<Room> exit(final String exit) {
+        return submit(new Callable<Room>() {
+            @Override
+            public Room call() throws Exception {
+                return session.exit(exit);
+            }
+        });
+    }
+
+    @Override
+    public Promise<List<Room>> exit(final List<String> exits) {
+        return submit(new Callable<List<Room>>() {
+            @Override
+            public List<Room> call() throws Exception {
+                return session.exit(exits);
+            }
+        });
+    }
+
+    @Override
+    public Promise<Void> close() {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                session.close();
+                return null;
+            }
+        });
+    }
+
+    private <T> Promise<T> submit(final Callable<T> command) {
+        final Promise<T> promise = new Promise<>();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                T result;
+                try {
+                    result = command.call();
+                } catch (Exception e) {
+                    currentRoom = session.getCurrentRoom();
+                    promise.fail(e);
+                    return;
+                }
+                currentRoom = session.getCurrentRoom();
+                promise.complete(result);
+            }
+        };
+        synchronized (commands) {
+            commands.add(task);
+            if (!running) {
+                running = true;
+                executor.execute(runNext);
+            }
+        }
+        return promise;
+    }
+}
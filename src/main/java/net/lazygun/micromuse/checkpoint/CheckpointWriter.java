@@ -0,0 +1,66 @@
+package net.lazygun.micromuse.checkpoint;
+
+import net.lazygun.micromuse.CrawlCoordinator;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Saves a {@link CrawlCoordinator}'s {@link CrawlCheckpoint} to a file every so often, replacing
+ * the one before. All the work happens on the writer's own thread, and taking a checkpoint only
+ * copies what the coordinator already holds, so the crawlers pay next to nothing for it.
+ *
+ * @author Ewan
+ */
+public class CheckpointWriter implements Closeable {
+
+    private static final Logger log = Logger.getLogger(CheckpointWriter.class.getName());
+
+    private final CrawlCoordinator coordinator;
+    private final File file;
+    private final ScheduledExecutorService scheduler;
+
+    public CheckpointWriter(CrawlCoordinator coordinator, File file, long period, TimeUnit unit) {
+        this.coordinator = coordinator;
+        this.file = file;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "CheckpointWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void write() {
+        try {
+            coordinator.checkpoint().write(file);
+        } catch (IOException | RuntimeException e) {
+            // The last checkpoint is still there, and there'll be another chance soon
+            log.log(Level.WARNING, "Couldn't write a checkpoint to " + file, e);
+        }
+    }
+
+    /**
+     * Stops writing, after one last checkpoint.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        write();
+    }
+}
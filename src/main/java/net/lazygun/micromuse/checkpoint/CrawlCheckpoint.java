@@ -0,0 +1,248 @@
+package net.lazygun.micromuse.checkpoint;
+
+import net.lazygun.micromuse.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * What a crawl knew when it was saved, beyond what's in the room service: where each crawler was
+ * standing, the routes they had claimed, and the routes to the rest of the frontier that the
+ * {@link CrawlCoordinator} had found, so that a restarted crawl can pick up where it left off
+ * rather than searching the whole map for the frontier again.
+ * <p>
+ * Rooms are saved by id, so a checkpoint is only any good against the room service it was taken
+ * from. Routes are saved from the last teleportable room on them, which is the only place a
+ * crawler that has just started can follow one from; routes with no teleportable room aren't
+ * saved. The file is laid out as:
+ * <pre>
+ * header       magic, version, time saved, string/position/claim/frontier counts
+ * strings      exit names, each written once, in modified UTF-8
+ * positions    long[positions] room ids
+ * routes       claims then frontier, each as int steps, long first room id, then for each step an
+ *              int exit name string id and a long room id
+ * </pre>
+ * It's written to a temporary file first and then moved into place, so a crash while saving
+ * leaves the last checkpoint as it was.
+ *
+ * @author Ewan
+ */
+public class CrawlCheckpoint {
+
+    static final int MAGIC = 0x4D4D4350;
+    static final int VERSION = 1;
+
+    private final long savedAt;
+    private final long[] positions;
+    private final List<SavedRoute> claims;
+    private final List<SavedRoute> frontier;
+
+    private CrawlCheckpoint(long savedAt, long[] positions, List<SavedRoute> claims, List<SavedRoute> frontier) {
+        this.savedAt = savedAt;
+        this.positions = positions;
+        this.claims = claims;
+        this.frontier = frontier;
+    }
+
+    /**
+     * @param positions the rooms the crawlers are standing in
+     * @param claims    the routes the crawlers have claimed
+     * @param frontier  other routes to unexplored rooms
+     */
+    public static CrawlCheckpoint of(Collection<Room> positions, Collection<Route> claims, Collection<Route> frontier) {
+        return of(positions, claims, frontier, Collections.<SavedRoute>emptyList());
+    }
+
+    /**
+     * @param unresolved routes to unexplored rooms from an earlier checkpoint, which have yet to be
+     *                   followed, added to the frontier as they are
+     */
+    public static CrawlCheckpoint of(Collection<Room> positions, Collection<Route> claims, Collection<Route> frontier,
+                                     Collection<SavedRoute> unresolved) {
+        long[] ids = new long[positions.size()];
+        int i = 0;
+        for (Room room : positions) {
+            ids[i++] = room.getId();
+        }
+        List<SavedRoute> saved = save(frontier);
+        saved.addAll(unresolved);
+        return new CrawlCheckpoint(System.currentTimeMillis(), ids, save(claims), saved);
+    }
+
+    private static List<SavedRoute> save(Collection<Route> routes) {
+        List<SavedRoute> saved = new ArrayList<>(routes.size());
+        for (Route route : routes) {
+            route = route.fromLastTeleportable();
+            if (route.size() > 0 && route.first().getFrom().isTeleportable()) {
+                saved.add(new SavedRoute(route));
+            }
+        }
+        return saved;
+    }
+
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    /**
+     * @return the ids of the rooms the crawlers were standing in
+     */
+    public long[] getPositions() {
+        return positions.clone();
+    }
+
+    public List<SavedRoute> getClaims() {
+        return Collections.unmodifiableList(claims);
+    }
+
+    public List<SavedRoute> getFrontier() {
+        return Collections.unmodifiableList(frontier);
+    }
+
+    public void write(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 1 << 16))) {
+            write(out);
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        Map<String, Integer> stringIds = new LinkedHashMap<>();
+        for (List<SavedRoute> routes : Arrays.asList(claims, frontier)) {
+            for (SavedRoute route : routes) {
+                for (String exit : route.exits) {
+                    if (!stringIds.containsKey(exit)) {
+                        stringIds.put(exit, stringIds.size());
+                    }
+                }
+            }
+        }
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(savedAt);
+        out.writeInt(stringIds.size());
+        out.writeInt(positions.length);
+        out.writeInt(claims.size());
+        out.writeInt(frontier.size());
+        for (String exit : stringIds.keySet()) {
+            out.writeUTF(exit);
+        }
+        for (long position : positions) {
+            out.writeLong(position);
+        }
+        for (List<SavedRoute> routes : Arrays.asList(claims, frontier)) {
+            for (SavedRoute route : routes) {
+                out.writeInt(route.exits.length);
+                out.writeLong(route.rooms[0]);
+                for (int i = 0; i < route.exits.length; i++) {
+                    out.writeInt(stringIds.get(route.exits[i]));
+                    out.writeLong(route.rooms[i + 1]);
+                }
+            }
+        }
+    }
+
+    public static CrawlCheckpoint read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a crawl checkpoint");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported crawl checkpoint version " + version + " in " + file);
+            }
+            long savedAt = in.readLong();
+            String[] strings = new String[in.readInt()];
+            long[] positions = new long[in.readInt()];
+            int claims = in.readInt();
+            int frontier = in.readInt();
+            for (int i = 0; i < strings.length; i++) {
+                strings[i] = in.readUTF();
+            }
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = in.readLong();
+            }
+            return new CrawlCheckpoint(savedAt, positions, read(in, claims, strings), read(in, frontier, strings));
+        }
+    }
+
+    private static List<SavedRoute> read(DataInputStream in, int count, String[] strings) throws IOException {
+        List<SavedRoute> routes = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            int steps = in.readInt();
+            long[] rooms = new long[steps + 1];
+            String[] exits = new String[steps];
+            rooms[0] = in.readLong();
+            for (int i = 0; i < steps; i++) {
+                exits[i] = strings[in.readInt()];
+                rooms[i + 1] = in.readLong();
+            }
+            routes.add(new SavedRoute(rooms, exits));
+        }
+        return routes;
+    }
+
+    /**
+     * A route, saved as the ids of the rooms along it and the exits between them.
+     */
+    public static final class SavedRoute {
+        private final long[] rooms;
+        private final String[] exits;
+
+        private SavedRoute(Route route) {
+            rooms = new long[route.size() + 1];
+            exits = new String[route.size()];
+            rooms[0] = route.first().getFrom().getId();
+            for (int i = 0; i < route.size(); i++) {
+                exits[i] = route.get(i).getExit();
+                rooms[i + 1] = route.get(i).getTo().getId();
+            }
+        }
+
+        private SavedRoute(long[] rooms, String[] exits) {
+            this.rooms = rooms;
+            this.exits = exits;
+        }
+
+        /**
+         * @return the id of the unexplored room at the end of the route
+         */
+        public long getTarget() {
+            return rooms[rooms.length - 1];
+        }
+
+        public int size() {
+            return exits.length;
+        }
+
+        /**
+         * Follows the route through the room service as it is now, one exit at a time, in the
+         * current transaction.
+         *
+         * @return the route, if every room along it is still the room it was when it was saved and
+         *         the last is still unexplored, otherwise null
+         */
+        public Route resolve(RoomService roomService) throws TraversalException {
+            Room room = roomService.findById(rooms[0]);
+            if (room == null || !room.isTeleportable()) {
+                return null;
+            }
+            List<Link> links = new ArrayList<>(exits.length);
+            for (int i = 0; i < exits.length; i++) {
+                if (!room.getExits().contains(exits[i])) {
+                    return null;
+                }
+                Room next = room.exit(exits[i]);
+                if (next.getId() != rooms[i + 1]) {
+                    return null;
+                }
+                links.add(new Link(room, exits[i], next));
+                room = next;
+            }
+            return room.isUnexplored() ? new Route(links) : null;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package net.lazygun.micromuse.memory;
+
+import net.lazygun.micromuse.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A room in a {@link MemoryRoomService}: just the service and the room's index in its arrays.
+ *
+ * @author Ewan
+ */
+public class MemoryRoom implements Room {
+
+    private final MemoryRoomService service;
+    private final int index;
+
+    MemoryRoom(MemoryRoomService service, int index) {
+        this.service = service;
+        this.index = index;
+    }
+
+    MemoryRoomService getService() {
+        return service;
+    }
+
+    int getIndex() {
+        return index;
+    }
+
+    @Override
+    public long getId() {
+        return index;
+    }
+
+    @Override
+    public String getName() {
+        return service.name(index);
+    }
+
+    @Override
+    public String getLocation() {
+        return service.location(index);
+    }
+
+    @Override
+    public String getDescription() {
+        return service.description(index);
+    }
+
+    @Override
+    public List<String> getExits() {
+        return service.exits(index);
+    }
+
+    @Override
+    public boolean isTeleportable() {
+        return service.isTeleportable(index);
+    }
+
+    @Override
+    public boolean isUnexplored() {
+        return service.isUnexplored(index);
+    }
+
+    @Override
+    public Link link(String exit, Room to) throws TraversalException {
+        return service.link(this, exit, to);
+    }
+
+    @Override
+    public Route findNearestUnexplored() {
+        return findNearestUnexplored(Collections.<Long>emptySet());
+    }
+
+    @Override
+    public Route findNearestUnexplored(Set<Long> excluding) {
+        return service.findNearestUnexplored(index, excluding);
+    }
+
+    @Override
+    public MemoryRoom exit(String exit) {
+        return service.exit(index, exit);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        MemoryRoom room = (MemoryRoom) o;
+
+        return service == room.service && index == room.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "MemoryRoom{name=" + getName() + ",location=" + getLocation() + ",exits=" + getExits() +
+               ",index=" + index + "}";
+    }
+}
@@ -0,0 +1,70 @@
+package net.lazygun.micromuse.memory;
+
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.RoomBuilder;
+import net.lazygun.micromuse.RoomImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Builds a room by finding or creating it in a {@link MemoryRoomService}.
+ *
+ * @author Ewan
+ */
+class MemoryRoomBuilder implements RoomBuilder {
+
+    private final MemoryRoomService service;
+
+    private String name;
+    private String location;
+    private String description = "";
+    private List<String> exits = Collections.emptyList();
+
+    MemoryRoomBuilder(MemoryRoomService service) {
+        this.service = service;
+    }
+
+    @Override
+    public RoomBuilder name(String name) {
+        this.name = name;
+        return this;
+    }
+
+    @Override
+    public RoomBuilder location(String location) {
+        this.location = location == null || location.isEmpty() ? null : location;
+        return this;
+    }
+
+    @Override
+    public RoomBuilder description(String description) {
+        this.description = description == null ? "" : description;
+        return this;
+    }
+
+    @Override
+    public RoomBuilder exits(String... exits) {
+        this.exits = new ArrayList<>(Arrays.asList(exits));
+        return this;
+    }
+
+    @Override
+    public Room build() {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalStateException("Room must have a non-empty name property");
+        }
+        return service.findOrCreate(new RoomImpl(name, location, description, exits));
+    }
+
+    @Override
+    public RoomBuilder copy(Room room) {
+        List<String> roomExits = room.getExits();
+        return name(room.getName())
+                .location(room.getLocation())
+                .description(room.getDescription())
+                .exits(roomExits.toArray(new String[roomExits.size()]));
+    }
+}
@@ -0,0 +1,440 @@
+package net.lazygun.micromuse.memory;
+
+import net.lazygun.micromuse.*;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A {@link RoomService} that keeps the whole map in primitive arrays on the heap, for crawl
+ * simulations and route planning that don't need a database.
+ * <p>
+ * Rooms are numbered in the order they're created, and their number is their id. A room's exits
+ * are fixed when it's created, so they're stored compressed (CSR): each room's exits take up a
+ * contiguous range of the exit arrays, which hold the interned id of the exit's name and the room
+ * it leads to. Linking an exit only ever changes the room it leads to. Unexplored placeholders are
+ * rooms like any other, flagged in a bitset, and are retired rather than deleted when they're
+ * replaced, so ids are never reused. Rooms are found by example through an open-addressing table
+ * keyed by a hash of their name, location and exit ids.
+ * <p>
+ * Every operation takes effect immediately, under a read-write lock, so transactions do nothing:
+ * a failed transaction doesn't undo the links made in it.
+ *
+ * @author Ewan
+ */
+public class MemoryRoomService implements RoomService {
+
+    static final String UNEXPLORED_NAME = "UNEXPLORED";
+
+    private static final int NONE = -1;
+    private static final Transaction NO_TRANSACTION = new Transaction() {
+        @Override
+        public void failure() {}
+
+        @Override
+        public void success() {}
+
+        @Override
+        public void close() {}
+    };
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<String> strings = new ArrayList<>();
+    private final Map<String, Integer> stringIds = new HashMap<>();
+
+    private int roomCount = 0;
+    private int[] names;
+    private int[] locations;
+    private int[] descriptions;
+    private int[] exitOffsets;
+    private final BitSet teleportable = new BitSet();
+    private final BitSet unexplored = new BitSet();
+    private final BitSet retired = new BitSet();
+
+    private int exitCount = 0;
+    private int[] exitNames;
+    private int[] exitTargets;
+
+    private int[] index;
+    private int indexed = 0;
+
+    public MemoryRoomService() {
+        this(1024);
+    }
+
+    /**
+     * @param expectedRooms how many rooms to make room for up front
+     */
+    public MemoryRoomService(int expectedRooms) {
+        int rooms = Math.max(16, expectedRooms);
+        names = new int[rooms];
+        locations = new int[rooms];
+        descriptions = new int[rooms];
+        exitOffsets = new int[rooms + 1];
+        exitNames = new int[rooms * 2];
+        exitTargets = new int[rooms * 2];
+        index = new int[Integer.highestOneBit(rooms) * 4];
+        Arrays.fill(index, NONE);
+    }
+
+    @Override
+    public RoomBuilder builder() {
+        return new MemoryRoomBuilder(this);
+    }
+
+    @Override
+    public MemoryRoom findOrCreate(Room room) {
+        if (room instanceof MemoryRoom && ((MemoryRoom) room).getService() == this) {
+            return (MemoryRoom) room;
+        }
+        lock.writeLock().lock();
+        try {
+            return new MemoryRoom(this, findOrCreateIndex(room));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Room> findOrCreateAll(List<? extends Room> rooms) {
+        List<Room> found = new ArrayList<>(rooms.size());
+        lock.writeLock().lock();
+        try {
+            for (Room room : rooms) {
+                found.add(room instanceof MemoryRoom && ((MemoryRoom) room).getService() == this
+                          ? room : new MemoryRoom(this, findOrCreateIndex(room)));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return found;
+    }
+
+    @Override
+    public MemoryRoom findById(long id) {
+        lock.readLock().lock();
+        try {
+            return id < 0 || id >= roomCount || retired.get((int) id) ? null : new MemoryRoom(this, (int) id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long countUnexplored() {
+        lock.readLock().lock();
+        try {
+            return unexplored.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public RouteFinder routeFinder() {
+        return RouteFinder.NEAREST;
+    }
+
+    /**
+     * @return the number of rooms in the map, including unexplored ones
+     */
+    public int getRoomCount() {
+        lock.readLock().lock();
+        try {
+            return roomCount - retired.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Transaction beginTransaction() {
+        return NO_TRANSACTION;
+    }
+
+    String name(int room) {
+        lock.readLock().lock();
+        try {
+            return strings.get(names[room]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    String location(int room) {
+        lock.readLock().lock();
+        try {
+            return locations[room] == NONE ? null : strings.get(locations[room]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    String description(int room) {
+        lock.readLock().lock();
+        try {
+            return strings.get(descriptions[room]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<String> exits(int room) {
+        lock.readLock().lock();
+        try {
+            List<String> exits = new ArrayList<>(exitOffsets[room + 1] - exitOffsets[room]);
+            for (int exit = exitOffsets[room]; exit < exitOffsets[room + 1]; exit++) {
+                exits.add(strings.get(exitNames[exit]));
+            }
+            return Collections.unmodifiableList(exits);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isTeleportable(int room) {
+        lock.readLock().lock();
+        try {
+            return teleportable.get(room);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    boolean isUnexplored(int room) {
+        lock.readLock().lock();
+        try {
+            return unexplored.get(room);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the room behind the given exit
+     * @throws IllegalArgumentException if the room has no such exit
+     */
+    MemoryRoom exit(int room, String exit) {
+        lock.readLock().lock();
+        try {
+            return new MemoryRoom(this, exitTargets[findExit(room, exit)]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    Link link(MemoryRoom from, String exit, Room to) throws LinkAlreadyExistsException {
+        lock.writeLock().lock();
+        try {
+            int slot = findExit(from.getIndex(), exit);
+            int placeholder = exitTargets[slot];
+            if (!unexplored.get(placeholder)) {
+                throw new LinkAlreadyExistsException(new Link(from, exit, new MemoryRoom(this, placeholder)));
+            }
+            unexplored.clear(placeholder);
+            retired.set(placeholder);
+            // Creating the room can grow the exit arrays, so don't index into them until it's done
+            int target = findOrCreateIndex(to);
+            exitTargets[slot] = target;
+            return new Link(from, exit, new MemoryRoom(this, target));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Breadth-first search from the given room to the nearest unexplored room not excluded.
+     *
+     * @return the route, or null if there's no unexplored room left to reach
+     */
+    Route findNearestUnexplored(int start, Set<Long> excluding) {
+        lock.readLock().lock();
+        try {
+            int[] reachedBy = new int[roomCount];
+            Arrays.fill(reachedBy, NONE);
+            int[] queue = new int[roomCount];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            reachedBy[start] = Integer.MAX_VALUE;
+            while (head < tail) {
+                int room = queue[head++];
+                for (int exit = exitOffsets[room]; exit < exitOffsets[room + 1]; exit++) {
+                    int target = exitTargets[exit];
+                    if (reachedBy[target] != NONE) {
+                        continue;
+                    }
+                    reachedBy[target] = exit;
+                    if (!unexplored.get(target)) {
+                        queue[tail++] = target;
+                    } else if (excluding.isEmpty() || !excluding.contains((long) target)) {
+                        return routeTo(target, reachedBy);
+                    }
+                }
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Route routeTo(int target, int[] reachedBy) {
+        LinkedList<Link> links = new LinkedList<>();
+        MemoryRoom to = new MemoryRoom(this, target);
+        for (int exit = reachedBy[target]; exit != Integer.MAX_VALUE; exit = reachedBy[to.getIndex()]) {
+            MemoryRoom from = new MemoryRoom(this, exitSource(exit));
+            links.addFirst(new Link(from, strings.get(exitNames[exit]), to));
+            to = from;
+        }
+        return new Route(links);
+    }
+
+    /**
+     * @return the room the given exit leads out of, by binary search of the exit offsets
+     */
+    private int exitSource(int exit) {
+        int low = 0;
+        int high = roomCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (exitOffsets[mid] <= exit) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+
+    private int findExit(int room, String exit) {
+        for (int slot = exitOffsets[room]; slot < exitOffsets[room + 1]; slot++) {
+            if (strings.get(exitNames[slot]).equals(exit)) {
+                return slot;
+            }
+        }
+        throw new IllegalArgumentException("Room has no exit name '" + exit + "'");
+    }
+
+    private int findOrCreateIndex(Room room) {
+        if (room.isUnexplored()) {
+            return create(UNEXPLORED_NAME, null, "", Collections.<String>emptyList(), true);
+        }
+        List<String> exits = new ArrayList<>(room.getExits());
+        Collections.sort(exits);
+        String location = room.getLocation() == null || room.getLocation().isEmpty() ? null : room.getLocation();
+        int found = find(room.getName(), location, exits);
+        if (found != NONE) {
+            return found;
+        }
+        int created = create(room.getName(), location, room.getDescription(), exits, false);
+        for (int exit = exitOffsets[created]; exit < exitOffsets[created + 1]; exit++) {
+            int placeholder = create(UNEXPLORED_NAME, null, "", Collections.<String>emptyList(), true);
+            exitTargets[exit] = placeholder;
+        }
+        addToIndex(created);
+        return created;
+    }
+
+    private int find(String name, String location, List<String> exits) {
+        Integer nameId = stringIds.get(name);
+        Integer locationId = location == null ? Integer.valueOf(NONE) : stringIds.get(location);
+        if (nameId == null || locationId == null) {
+            return NONE;
+        }
+        int[] exitIds = new int[exits.size()];
+        for (int i = 0; i < exitIds.length; i++) {
+            Integer exitId = stringIds.get(exits.get(i));
+            if (exitId == null) {
+                return NONE;
+            }
+            exitIds[i] = exitId;
+        }
+        int mask = index.length - 1;
+        for (int slot = hash(nameId, locationId, exitIds) & mask; index[slot] != NONE; slot = (slot + 1) & mask) {
+            int room = index[slot];
+            if (names[room] == nameId && locations[room] == locationId && hasExits(room, exitIds)) {
+                return room;
+            }
+        }
+        return NONE;
+    }
+
+    private boolean hasExits(int room, int[] exitIds) {
+        if (exitOffsets[room + 1] - exitOffsets[room] != exitIds.length) {
+            return false;
+        }
+        for (int i = 0; i < exitIds.length; i++) {
+            if (exitNames[exitOffsets[room] + i] != exitIds[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToIndex(int room) {
+        if (++indexed * 2 > index.length) {
+            int[] old = index;
+            index = new int[old.length * 2];
+            Arrays.fill(index, NONE);
+            for (int existing : old) {
+                if (existing != NONE) insert(existing);
+            }
+        }
+        insert(room);
+    }
+
+    private void insert(int room) {
+        int[] exitIds = Arrays.copyOfRange(exitNames, exitOffsets[room], exitOffsets[room + 1]);
+        int mask = index.length - 1;
+        int slot = hash(names[room], locations[room], exitIds) & mask;
+        while (index[slot] != NONE) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = room;
+    }
+
+    private static int hash(int name, int location, int[] exits) {
+        int hash = 31 * name + location;
+        for (int exit : exits) {
+            hash = 31 * hash + exit;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private int create(String name, String location, String description, List<String> exits, boolean isUnexplored) {
+        int room = roomCount++;
+        if (room + 1 >= names.length) {
+            int capacity = names.length * 2;
+            names = Arrays.copyOf(names, capacity);
+            locations = Arrays.copyOf(locations, capacity);
+            descriptions = Arrays.copyOf(descriptions, capacity);
+            exitOffsets = Arrays.copyOf(exitOffsets, capacity + 1);
+        }
+        if (exitCount + exits.size() > exitNames.length) {
+            int capacity = Math.max(exitNames.length * 2, exitCount + exits.size());
+            exitNames = Arrays.copyOf(exitNames, capacity);
+            exitTargets = Arrays.copyOf(exitTargets, capacity);
+        }
+        names[room] = intern(name);
+        locations[room] = location == null ? NONE : intern(location);
+        descriptions[room] = intern(description == null ? "" : description);
+        teleportable.set(room, location != null);
+        unexplored.set(room, isUnexplored);
+        exitOffsets[room] = exitCount;
+        for (String exit : exits) {
+            exitNames[exitCount] = intern(exit);
+            exitTargets[exitCount++] = NONE;
+        }
+        exitOffsets[room + 1] = exitCount;
+        return room;
+    }
+
+    private int intern(String string) {
+        Integer id = stringIds.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.add(string);
+            stringIds.put(string, id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,200 @@
+package net.lazygun.micromuse.metrics;
+
+import net.lazygun.micromuse.RoomService;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Everything measured about one crawl: a {@link LatencyHistogram} per {@link Operation}, counts of
+ * links created, rooms entered, collisions and retries, how often route searches were answered
+ * from the cache, and the size of the frontier. Recording is
+ * lock-free and allocation-free, so it's safe on every step of every crawler; reading is left to
+ * JMX (see {@link #register(String)}) and the {@link MetricsSnapshotWriter}.
+ *
+ * @author Ewan
+ */
+public class CrawlMetrics implements CrawlMetricsMXBean {
+
+    public static final String DOMAIN = "net.lazygun.micromuse";
+
+    private final RoomService roomService;
+    private final Map<Operation, LatencyHistogram> latencies = new EnumMap<>(Operation.class);
+    private final AtomicLong linksCreated = new AtomicLong();
+    private final AtomicLong roomsEntered = new AtomicLong();
+    private final AtomicLong collisions = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong routeCacheHits = new AtomicLong();
+    private final AtomicLong routeCacheMisses = new AtomicLong();
+    private volatile long startedAt;
+    private ObjectName objectName;
+
+    public CrawlMetrics() {
+        this(null);
+    }
+
+    /**
+     * @param roomService the service to ask for the size of the frontier, or null to not track it
+     */
+    public CrawlMetrics(RoomService roomService) {
+        this.roomService = roomService;
+        for (Operation operation : Operation.values()) {
+            latencies.put(operation, new LatencyHistogram());
+        }
+        startedAt = System.nanoTime();
+    }
+
+    public void record(Operation operation, long startNanos) {
+        latencies.get(operation).record(System.nanoTime() - startNanos);
+    }
+
+    public LatencyHistogram getHistogram(Operation operation) {
+        return latencies.get(operation);
+    }
+
+    public void linkCreated() {
+        linksCreated.incrementAndGet();
+    }
+
+    public void roomsEntered(int rooms) {
+        roomsEntered.addAndGet(rooms);
+    }
+
+    public void collision() {
+        collisions.incrementAndGet();
+    }
+
+    public void retry() {
+        retries.incrementAndGet();
+    }
+
+    public void routeCacheHit() {
+        routeCacheHits.incrementAndGet();
+    }
+
+    public void routeCacheMiss() {
+        routeCacheMisses.incrementAndGet();
+    }
+
+    @Override
+    public long getLinksCreated() {
+        return linksCreated.get();
+    }
+
+    @Override
+    public long getRoomsEntered() {
+        return roomsEntered.get();
+    }
+
+    @Override
+    public long getCollisions() {
+        return collisions.get();
+    }
+
+    @Override
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public long getRouteCacheHits() {
+        return routeCacheHits.get();
+    }
+
+    @Override
+    public long getRouteCacheMisses() {
+        return routeCacheMisses.get();
+    }
+
+    @Override
+    public double getRouteCacheHitRate() {
+        long hits = getRouteCacheHits();
+        long searches = hits + getRouteCacheMisses();
+        return searches > 0 ? (double) hits / searches : 0;
+    }
+
+    @Override
+    public long getFrontierSize() {
+        return roomService == null ? -1 : roomService.countUnexplored();
+    }
+
+    @Override
+    public double getLinksPerSecond() {
+        return perSecond(getLinksCreated());
+    }
+
+    @Override
+    public double getRoomsPerSecond() {
+        return perSecond(getRoomsEntered());
+    }
+
+    @Override
+    public double getUptimeSeconds() {
+        return (double) (System.nanoTime() - startedAt) / TimeUnit.SECONDS.toNanos(1);
+    }
+
+    @Override
+    public Map<String, LatencySnapshot> getLatencies() {
+        Map<String, LatencySnapshot> snapshots = new LinkedHashMap<>();
+        for (Map.Entry<Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            snapshots.put(entry.getKey().name(), entry.getValue().snapshot());
+        }
+        return snapshots;
+    }
+
+    @Override
+    public synchronized void reset() {
+        // The histograms are reset in place: the map is read without a lock, so must never change
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        linksCreated.set(0);
+        roomsEntered.set(0);
+        collisions.set(0);
+        retries.set(0);
+        routeCacheHits.set(0);
+        routeCacheMisses.set(0);
+        startedAt = System.nanoTime();
+    }
+
+    /**
+     * Publishes these metrics on the platform MBean server, as
+     * {@code net.lazygun.micromuse:type=CrawlMetrics,name=<name>}.
+     */
+    public synchronized CrawlMetrics register(String name) {
+        try {
+            objectName = new ObjectName(DOMAIN + ":type=CrawlMetrics,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't register crawl metrics '" + name + "'", e);
+        }
+        return this;
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (InstanceNotFoundException ignored) {
+        } catch (JMException e) {
+            throw new IllegalStateException("Couldn't unregister crawl metrics " + objectName, e);
+        }
+        objectName = null;
+    }
+
+    private double perSecond(long count) {
+        double seconds = getUptimeSeconds();
+        return seconds > 0 ? count / seconds : 0;
+    }
+}
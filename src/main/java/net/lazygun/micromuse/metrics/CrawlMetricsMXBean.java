@@ -0,0 +1,46 @@
+package net.lazygun.micromuse.metrics;
+
+import java.util.Map;
+
+/**
+ * The view of a crawl's {@link CrawlMetrics} published over JMX.
+ *
+ * @author Ewan
+ */
+public interface CrawlMetricsMXBean {
+
+    long getLinksCreated();
+
+    long getRoomsEntered();
+
+    long getCollisions();
+
+    long getRetries();
+
+    long getRouteCacheHits();
+
+    long getRouteCacheMisses();
+
+    /**
+     * @return the fraction of nearest-unexplored searches answered from the route cache
+     */
+    double getRouteCacheHitRate();
+
+    /**
+     * @return the number of unexplored rooms left, or -1 if the crawl has no way of knowing
+     */
+    long getFrontierSize();
+
+    double getLinksPerSecond();
+
+    double getRoomsPerSecond();
+
+    double getUptimeSeconds();
+
+    /**
+     * @return a latency summary for each {@link Operation}, keyed by name
+     */
+    Map<String, LatencySnapshot> getLatencies();
+
+    void reset();
+}
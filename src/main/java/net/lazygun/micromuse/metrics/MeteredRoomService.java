@@ -0,0 +1,73 @@
+package net.lazygun.micromuse.metrics;
+
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.RoomBuilder;
+import net.lazygun.micromuse.RoomService;
+import net.lazygun.micromuse.RouteFinder;
+import net.lazygun.micromuse.Transaction;
+
+import java.util.List;
+
+import static net.lazygun.micromuse.metrics.Operation.FIND_OR_CREATE;
+
+/**
+ * A {@link RoomService} that times every {@link #findOrCreate(Room)}. Sessions are the main
+ * callers of findOrCreate, so to see it in a crawl's metrics, give them this service rather than
+ * the one it wraps.
+ *
+ * @author Ewan
+ */
+public class MeteredRoomService implements RoomService {
+
+    private final RoomService roomService;
+    private final CrawlMetrics metrics;
+
+    public MeteredRoomService(RoomService roomService, CrawlMetrics metrics) {
+        this.roomService = roomService;
+        this.metrics = metrics;
+    }
+
+    public CrawlMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public RoomBuilder builder() {
+        return roomService.builder();
+    }
+
+    @Override
+    public Room findOrCreate(Room room) {
+        long start = System.nanoTime();
+        try {
+            return roomService.findOrCreate(room);
+        } finally {
+            metrics.record(FIND_OR_CREATE, start);
+        }
+    }
+
+    @Override
+    public List<Room> findOrCreateAll(List<? extends Room> rooms) {
+        return roomService.findOrCreateAll(rooms);
+    }
+
+    @Override
+    public Room findById(long id) {
+        return roomService.findById(id);
+    }
+
+    @Override
+    public long countUnexplored() {
+        return roomService.countUnexplored();
+    }
+
+    @Override
+    public RouteFinder routeFinder() {
+        return roomService.routeFinder();
+    }
+
+    @Override
+    public Transaction beginTransaction() {
+        return roomService.beginTransaction();
+    }
+}
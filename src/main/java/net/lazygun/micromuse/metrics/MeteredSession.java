@@ -0,0 +1,95 @@
+package net.lazygun.micromuse.metrics;
+
+import net.lazygun.micromuse.ExpectedRooms;
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.Session;
+import net.lazygun.micromuse.TraversalException;
+
+import java.io.IOException;
+import java.util.List;
+
+import static net.lazygun.micromuse.metrics.Operation.SESSION_ROUND_TRIP;
+
+/**
+ * A {@link Session} that times every call to the session it wraps, and counts the rooms entered.
+ *
+ * @author Ewan
+ */
+public class MeteredSession implements Session {
+
+    private final Session session;
+    private final CrawlMetrics metrics;
+
+    public MeteredSession(Session session, CrawlMetrics metrics) {
+        this.session = session;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Room getCurrentRoom() {
+        return session.getCurrentRoom();
+    }
+
+    @Override
+    public Room look() {
+        long start = System.nanoTime();
+        try {
+            return session.look();
+        } finally {
+            metrics.record(SESSION_ROUND_TRIP, start);
+        }
+    }
+
+    @Override
+    public Room teleport(String location) {
+        long start = System.nanoTime();
+        try {
+            Room room = session.teleport(location);
+            metrics.roomsEntered(1);
+            return room;
+        } finally {
+            metrics.record(SESSION_ROUND_TRIP, start);
+        }
+    }
+
+    @Override
+    public Room exit(String exit) throws TraversalException {
+        long start = System.nanoTime();
+        try {
+            Room room = session.exit(exit);
+            metrics.roomsEntered(1);
+            return room;
+        } finally {
+            metrics.record(SESSION_ROUND_TRIP, start);
+        }
+    }
+
+    @Override
+    public List<Room> exit(List<String> exits) throws TraversalException {
+        long start = System.nanoTime();
+        try {
+            List<Room> rooms = session.exit(exits);
+            metrics.roomsEntered(rooms.size());
+            return rooms;
+        } finally {
+            metrics.record(SESSION_ROUND_TRIP, start);
+        }
+    }
+
+    @Override
+    public List<Room> exit(List<String> exits, ExpectedRooms expected) throws TraversalException {
+        long start = System.nanoTime();
+        try {
+            List<Room> rooms = session.exit(exits, expected);
+            metrics.roomsEntered(rooms.size());
+            return rooms;
+        } finally {
+            metrics.record(SESSION_ROUND_TRIP, start);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        session.close();
+    }
+}
@@ -0,0 +1,89 @@
+package net.lazygun.micromuse.metrics;
+
+import java.io.Closeable;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a snapshot of a crawl's {@link CrawlMetrics} every so often, as one line of
+ * space-separated key=value pairs, e.g.
+ * <pre>
+ * time=1397000000000 uptime=12.0 links=1520 linkRate=131.0 rooms=4410 roomRate=380.2 collisions=3 retries=0 routeHitRate=0.42 frontier=212 TRAVERSAL.count=1520 TRAVERSAL.p50=1.250 ...
+ * </pre>
+ * Rates are over the interval since the previous line. All the work happens on the writer's own
+ * thread, so the crawlers pay nothing for it.
+ *
+ * @author Ewan
+ */
+public class MetricsSnapshotWriter implements Closeable {
+
+    private final CrawlMetrics metrics;
+    private final PrintStream out;
+    private final ScheduledExecutorService scheduler;
+
+    private long lastNanos;
+    private long lastLinks;
+    private long lastRooms;
+
+    public MetricsSnapshotWriter(CrawlMetrics metrics, PrintStream out, long period, TimeUnit unit) {
+        this.metrics = metrics;
+        this.out = out;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "MetricsSnapshotWriter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.lastNanos = System.nanoTime();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, period, period, unit);
+    }
+
+    public synchronized void write() {
+        long now = System.nanoTime();
+        long links = metrics.getLinksCreated();
+        long rooms = metrics.getRoomsEntered();
+        double seconds = (double) (now - lastNanos) / TimeUnit.SECONDS.toNanos(1);
+        StringBuilder line = new StringBuilder()
+                .append("time=").append(System.currentTimeMillis())
+                .append(String.format(" uptime=%.1f", metrics.getUptimeSeconds()))
+                .append(" links=").append(links)
+                .append(String.format(" linkRate=%.1f", seconds > 0 ? (links - lastLinks) / seconds : 0))
+                .append(" rooms=").append(rooms)
+                .append(String.format(" roomRate=%.1f", seconds > 0 ? (rooms - lastRooms) / seconds : 0))
+                .append(" collisions=").append(metrics.getCollisions())
+                .append(" retries=").append(metrics.getRetries())
+                .append(String.format(" routeHitRate=%.2f", metrics.getRouteCacheHitRate()))
+                .append(" frontier=").append(metrics.getFrontierSize());
+        for (Map.Entry<String, LatencySnapshot> entry : metrics.getLatencies().entrySet()) {
+            LatencySnapshot latency = entry.getValue();
+            String op = entry.getKey();
+            line.append(' ').append(op).append(".count=").append(latency.getCount())
+                .append(String.format(" %s.p50=%.3f %s.p99=%.3f %s.max=%.3f",
+                                      op, latency.getP50Millis(), op, latency.getP99Millis(), op, latency.getMaxMillis()));
+        }
+        out.println(line);
+        lastNanos = now;
+        lastLinks = links;
+        lastRooms = rooms;
+    }
+
+    /**
+     * Stops writing, after one last snapshot.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        write();
+    }
+}
@@ -0,0 +1,19 @@
+package net.lazygun.micromuse.metrics;
+
+/**
+ * The operations a crawl spends its time in, each of which gets its own latency histogram.
+ *
+ * @author Ewan
+ */
+public enum Operation {
+    /** Finding and claiming the nearest unexplored room */
+    ROUTE_FINDING,
+    /** Following a route to the room at the end of it, including every session command on the way */
+    TRAVERSAL,
+    /** Linking the last exit of a route to the room it led to */
+    LINK,
+    /** Looking a room up in the graph, or adding it if it's new */
+    FIND_OR_CREATE,
+    /** One call to the session: a look, a teleport, or a batch of exits */
+    SESSION_ROUND_TRIP
+}
@@ -0,0 +1,31 @@
+package net.lazygun.micromuse.neo4j;
+
+/**
+ * The price of each kind of move, in whatever unit routes should be compared by. The default counts
+ * MUSE commands, since each one is a round trip to the server.
+ *
+ * @author Ewan
+ */
+public class CostModel {
+
+    public static final CostModel COMMANDS = new CostModel(1, 1);
+
+    private final int exitCost;
+    private final int teleportCost;
+
+    public CostModel(int exitCost, int teleportCost) {
+        if (exitCost < 1 || teleportCost < 0) {
+            throw new IllegalArgumentException("Exits must cost at least 1 and teleports must not be negative");
+        }
+        this.exitCost = exitCost;
+        this.teleportCost = teleportCost;
+    }
+
+    public int getExitCost() {
+        return exitCost;
+    }
+
+    public int getTeleportCost() {
+        return teleportCost;
+    }
+}
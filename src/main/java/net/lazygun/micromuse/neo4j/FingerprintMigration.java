@@ -0,0 +1,179 @@
+package net.lazygun.micromuse.neo4j;
+
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.*;
+import static net.lazygun.micromuse.neo4j.RoomNode.Relation.EXIT;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Rewrites the fingerprints of rooms in a store made before {@link RoomFingerprint}, which are
+ * MD5 hex strings, as the pairs of longs used now, and gives every room a signature (its
+ * fingerprint without its location) if it hasn't got one. Until it's run, rooms can still be found
+ * by name and exits, which {@link RoomNode#findByExample(net.lazygun.micromuse.Room)} falls back
+ * to by walking the exits of every room with the same name, but a {@link MapImporter} won't find
+ * them, and will add them to the store again. Once every room has a signature, the signatures are
+ * indexed, and rooms are looked up by signature from then on instead.
+ * <p>
+ * The rooms to migrate are found in one pass, holding only their node ids, and then rewritten a
+ * batch at a time. Running it again only does what's left to do. Two old fingerprints can come
+ * out the same, if the same room was fingerprinted twice, with its exits in different orders: the
+ * first room keeps the fingerprint, and the others are left with none, so that they can only be
+ * found by signature. Those are counted as {@link #getDuplicates() duplicates}.
+ *
+ * @author Ewan
+ */
+public class FingerprintMigration {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final GraphDatabaseService db;
+    private final int batchSize;
+
+    private long migrated = 0;
+    private long duplicates = 0;
+    private long signed = 0;
+
+    public FingerprintMigration(GraphDatabaseService db) {
+        this(db, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize the number of rooms to migrate in each transaction
+     */
+    public FingerprintMigration(GraphDatabaseService db, int batchSize) {
+        this.db = db;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Migrates every room with an old fingerprint or no signature, then indexes the signatures.
+     *
+     * @return the number of rooms given a new fingerprint
+     */
+    public long migrate() {
+        long before = migrated;
+        long[] ids = findUnmigrated();
+        for (int from = 0; from < ids.length; from += batchSize) {
+            try (Transaction tx = db.beginTx()) {
+                for (int i = from; i < Math.min(from + batchSize, ids.length); i++) {
+                    migrate(db.getNodeById(ids[i]));
+                }
+                tx.success();
+            }
+        }
+        indexSignatures();
+        return migrated - before;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getMigrated() {
+        return migrated;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return the number of rooms given a signature
+     */
+    public long getSigned() {
+        return signed;
+    }
+
+    private long[] findUnmigrated() {
+        long[] ids = new long[64];
+        int count = 0;
+        try (Transaction tx = db.beginTx()) {
+            for (Node node : GlobalGraphOperations.at(db).getAllNodesWithLabel(ROOM)) {
+                if (node.getProperty(FINGERPRINT, null) instanceof String || !(node.hasProperty(SIGNATURE) || node.hasLabel(UNEXPLORED))) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = node.getId();
+                }
+            }
+            tx.success();
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private void migrate(Node node) {
+        String name = (String) node.getProperty(NAME);
+        List<String> exits = exits(node);
+        node.setProperty(SIGNATURE, createFingerPrint(name, null, exits));
+        signed++;
+        if (!(node.getProperty(FINGERPRINT, null) instanceof String)) {
+            return;
+        }
+        long[] fingerprint = createFingerPrint(name, (String) node.getProperty(LOCATION, null), exits);
+        for (Node holder : db.findNodesByLabelAndProperty(ROOM, FINGERPRINT, fingerprint)) {
+            if (holder.getId() != node.getId()) {
+                node.removeProperty(FINGERPRINT);
+                duplicates++;
+                return;
+            }
+        }
+        node.setProperty(FINGERPRINT, fingerprint);
+        migrated++;
+    }
+
+    private void indexSignatures() {
+        try (Transaction tx = db.beginTx()) {
+            Schema schema = db.schema();
+            if (!GraphRoomService.isIndexed(schema, ROOM, SIGNATURE)) {
+                schema.indexFor(ROOM).on(SIGNATURE).create();
+            }
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.schema().awaitIndexesOnline(10, TimeUnit.MINUTES);
+            tx.success();
+        }
+        RoomNode.signed(db);
+    }
+
+    private static List<String> exits(Node node) {
+        String[] exits = (String[]) node.getProperty(EXITS, null);
+        if (exits != null) {
+            return Arrays.asList(exits);
+        }
+        List<String> names = new ArrayList<>();
+        for (Relationship exit : node.getRelationships(EXIT, OUTGOING)) {
+            names.add((String) exit.getProperty(NAME));
+        }
+        return names;
+    }
+
+    /**
+     * Migrates the fingerprints in an embedded database: {@code FingerprintMigration <db path>}. The
+     * database is opened as it is, without a {@link GraphRoomService}, since the migration needs
+     * nothing but the schema the store already has.
+     */
+    public static void main(String[] args) {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(args[0]);
+        try {
+            FingerprintMigration migration = new FingerprintMigration(db);
+            long started = System.currentTimeMillis();
+            migration.migrate();
+            System.out.println("Migrated " + migration.getMigrated() + " fingerprints and signed " +
+                               migration.getSigned() + " rooms in " +
+                               (System.currentTimeMillis() - started) / 1000 + "s; " +
+                               migration.getDuplicates() + " rooms were duplicates, and were left with none.");
+        } finally {
+            db.shutdown();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package net.lazygun.micromuse.neo4j;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.*;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.EXITS;
+import static net.lazygun.micromuse.neo4j.RoomNode.OPEN;
+import static net.lazygun.micromuse.neo4j.RoomNode.Relation.EXIT;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Finds the shortest route from a room to its nearest open exit, in the
+ * {@link GraphLayout#OPEN_EXITS} layout. The search is level-synchronous and node-unique, like
+ * {@link UnexploredFinder}'s, but it stops at the first room labelled as being on the frontier that
+ * has an open exit that isn't excluded, rather than at an unexplored node. Only rooms on the
+ * frontier have their open exits read: for every other room, the label is all it takes.
+ *
+ * @author Ewan
+ */
+class FrontierFinder {
+
+    private static final String[] NONE = new String[0];
+
+    private final Label frontier;
+
+    FrontierFinder(Label frontier) {
+        this.frontier = frontier;
+    }
+
+    /**
+     * @return the nearest open exit from the given node whose {@link OpenExit} id isn't in the
+     *         excluded set, or null if there isn't one
+     */
+    Frontier find(Node start, Set<Long> excluding) {
+        Map<Long, Relationship> reachedBy = new HashMap<>();
+        reachedBy.put(start.getId(), null);
+        List<Node> level = Collections.singletonList(start);
+        while (!level.isEmpty()) {
+            List<Node> next = new ArrayList<>();
+            for (Node node : level) {
+                Frontier found = openExit(node, excluding);
+                if (found != null) {
+                    found.path = routeTo(node, reachedBy);
+                    return found;
+                }
+                for (Relationship rel : node.getRelationships(EXIT, OUTGOING)) {
+                    try {
+                        Node end = rel.getEndNode();
+                        if (!reachedBy.containsKey(end.getId())) {
+                            reachedBy.put(end.getId(), rel);
+                            next.add(end);
+                        }
+                    } catch (NotFoundException ignored) {
+                        // Deleted by another transaction since we listed it
+                    }
+                }
+            }
+            level = next;
+        }
+        return null;
+    }
+
+    private Frontier openExit(Node node, Set<Long> excluding) {
+        if (!node.hasLabel(frontier)) {
+            return null;
+        }
+        String[] exits = (String[]) node.getProperty(EXITS, NONE);
+        for (String exit : (String[]) node.getProperty(OPEN, NONE)) {
+            // Exits are stored sorted
+            int index = Arrays.binarySearch(exits, exit);
+            if (index >= 0 && !excluding.contains(OpenExit.id(node.getId(), index))) {
+                return new Frontier(node, exit, index);
+            }
+        }
+        return null;
+    }
+
+    private List<Relationship> routeTo(Node end, Map<Long, Relationship> reachedBy) {
+        LinkedList<Relationship> route = new LinkedList<>();
+        for (Relationship rel = reachedBy.get(end.getId()); rel != null; rel = reachedBy.get(rel.getStartNode().getId())) {
+            route.addFirst(rel);
+        }
+        return route;
+    }
+
+    /**
+     * An open exit, and the relationships along the way to its room.
+     */
+    static class Frontier {
+        final Node room;
+        final String exit;
+        final int exitIndex;
+        List<Relationship> path;
+
+        private Frontier(Node room, String exit, int exitIndex) {
+            this.room = room;
+            this.exit = exit;
+            this.exitIndex = exitIndex;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package net.lazygun.micromuse.neo4j;
+
+/**
+ * How a {@link GraphRoomService} keeps track of the exits nobody has been through yet.
+ *
+ * @author Ewan
+ */
+public enum GraphLayout {
+
+    /**
+     * Every unexplored exit leads to a placeholder node of its own, labelled UNEXPLORED, which is
+     * deleted and replaced by a relationship to the real room when the exit is linked. The route
+     * planner, partitioned crawls and the map importer all expect this layout.
+     */
+    PLACEHOLDERS,
+
+    /**
+     * Unexplored exits are listed in an "open" property on their room, and a room is labelled
+     * FRONTIER while it has any, so there are no placeholder nodes at all. An open exit is seen as
+     * an {@link OpenExit}, and linking it adds one relationship and takes the exit off the list.
+     */
+    OPEN_EXITS
+}
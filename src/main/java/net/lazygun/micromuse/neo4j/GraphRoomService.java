@@ -3,12 +3,41 @@ package net.lazygun.micromuse.neo4j;
 import net.lazygun.micromuse.Room;
 import net.lazygun.micromuse.RoomBuilder;
 import net.lazygun.micromuse.RoomService;
+import net.lazygun.micromuse.RouteFinder;
 import net.lazygun.micromuse.Transaction;
+import net.lazygun.micromuse.snapshot.MapSnapshot;
+import net.lazygun.micromuse.snapshot.MapSnapshotWriter;
 import org.neo4j.graphdb.*;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.ConstraintType;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.persistence.PersistenceManager;
+import org.neo4j.tooling.GlobalGraphOperations;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.DESCRIPTION;
+import static net.lazygun.micromuse.neo4j.RoomNode.EXITS;
 import static net.lazygun.micromuse.neo4j.RoomNode.FINGERPRINT;
+import static net.lazygun.micromuse.neo4j.RoomNode.LOCATION;
+import static net.lazygun.micromuse.neo4j.RoomNode.FRONTIER;
+import static net.lazygun.micromuse.neo4j.RoomNode.NAME;
+import static net.lazygun.micromuse.neo4j.RoomNode.OPEN;
 import static net.lazygun.micromuse.neo4j.RoomNode.ROOM;
+import static net.lazygun.micromuse.neo4j.RoomNode.SIGNATURE;
+import static net.lazygun.micromuse.neo4j.RoomNode.TELEPORTABLE;
+import static net.lazygun.micromuse.neo4j.RoomNode.UNEXPLORED;
+import static net.lazygun.micromuse.neo4j.RoomNode.Relation.EXIT;
+import static org.neo4j.graphdb.Direction.OUTGOING;
 
 /**
  *
@@ -17,14 +46,90 @@ import static net.lazygun.micromuse.neo4j.RoomNode.ROOM;
 public class GraphRoomService implements RoomService {
 
     private final GraphDatabaseService db;
+    private final GraphLayout layout;
+    private final RouteFinder routeFinder;
+    private final PersistenceManager persistence;
 
     public GraphRoomService(GraphDatabaseService db) {
+        this(db, RoomCache.DEFAULT_SIZE);
+    }
+
+    /**
+     * @param cacheSize the most room snapshots to keep in the {@link RoomCache}
+     */
+    public GraphRoomService(GraphDatabaseService db, int cacheSize) {
+        this(db, cacheSize, GraphLayout.PLACEHOLDERS);
+    }
+
+    /**
+     * @param cacheSize the most room snapshots to keep in the {@link RoomCache}
+     * @param layout    how to keep track of unexplored exits, which must be how the database
+     *                  already does, if it has any rooms
+     */
+    public GraphRoomService(GraphDatabaseService db, int cacheSize, GraphLayout layout) {
         this.db = db;
-        RoomNode.initialise(db);
+        this.layout = layout;
+        this.routeFinder = layout == GraphLayout.PLACEHOLDERS ? new RoutePlanner(db) : RouteFinder.NEAREST;
+        this.persistence = db instanceof GraphDatabaseAPI
+                           ? ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(PersistenceManager.class)
+                           : null;
+        RoomNode.initialise(db, cacheSize, layout);
+        boolean empty;
         try (org.neo4j.graphdb.Transaction tx = db.beginTx()) {
-            db.schema().constraintFor(ROOM).assertPropertyIsUnique(FINGERPRINT).create();
+            empty = !GlobalGraphOperations.at(db).getAllNodesWithLabel(ROOM).iterator().hasNext();
             tx.success();
         }
+        try (org.neo4j.graphdb.Transaction tx = db.beginTx()) {
+            Schema schema = db.schema();
+            if (!isUnique(schema, ROOM, FINGERPRINT)) {
+                schema.constraintFor(ROOM).assertPropertyIsUnique(FINGERPRINT).create();
+            }
+            if (!isIndexed(schema, TELEPORTABLE, LOCATION)) {
+                schema.indexFor(TELEPORTABLE).on(LOCATION).create();
+            }
+            if (!isIndexed(schema, ROOM, NAME)) {
+                schema.indexFor(ROOM).on(NAME).create();
+            }
+            // A store with rooms but no signature index is signed by its FingerprintMigration
+            if (empty && !isIndexed(schema, ROOM, SIGNATURE)) {
+                schema.indexFor(ROOM).on(SIGNATURE).create();
+            }
+            tx.success();
+        }
+        try (org.neo4j.graphdb.Transaction tx = db.beginTx()) {
+            db.schema().awaitIndexesOnline(10, TimeUnit.SECONDS);
+            if (isIndexed(db.schema(), ROOM, SIGNATURE)) {
+                RoomNode.signed(db);
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * The schema is only created the first time a store is opened: creating a constraint or an
+     * index that's already there fails.
+     */
+    private static boolean isUnique(Schema schema, Label label, String property) {
+        for (ConstraintDefinition constraint : schema.getConstraints(label)) {
+            if (constraint.isConstraintType(ConstraintType.UNIQUENESS) && hasOnly(constraint.getPropertyKeys(), property)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean isIndexed(Schema schema, Label label, String property) {
+        for (IndexDefinition index : schema.getIndexes(label)) {
+            if (hasOnly(index.getPropertyKeys(), property)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasOnly(Iterable<String> keys, String property) {
+        Iterator<String> it = keys.iterator();
+        return it.hasNext() && it.next().equals(property) && !it.hasNext();
     }
 
     public GraphRoomService(String dbPath) {
@@ -37,6 +142,68 @@ public class GraphRoomService implements RoomService {
         });
     }
 
+    public RoomCache getCache() {
+        return RoomNode.getCache();
+    }
+
+    public RoomLocks getLocks() {
+        return RoomNode.getLocks();
+    }
+
+    public GraphLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * @return an importer for loading recorded maps straight into this service's graph
+     */
+    public MapImporter importer() {
+        return new MapImporter(db, MapImporter.DEFAULT_BATCH_SIZE, MapImporter.DEFAULT_CACHE_SIZE, layout);
+    }
+
+    /**
+     * @return a migration for the fingerprints of a store made before {@link RoomFingerprint}, or
+     *         before rooms were given signatures
+     */
+    public FingerprintMigration fingerprintMigration() {
+        return new FingerprintMigration(db);
+    }
+
+    /**
+     * Writes every room and exit in the graph to a {@link MapSnapshot} file, in one transaction. In
+     * the {@link GraphLayout#OPEN_EXITS} layout, each open exit is written as an exit to an
+     * unexplored room of its own, with the id of its {@link OpenExit}, as it would be in the other.
+     *
+     * @return the number of rooms written
+     */
+    public int exportSnapshot(File file) throws IOException {
+        MapSnapshotWriter writer = new MapSnapshotWriter();
+        try (org.neo4j.graphdb.Transaction tx = db.beginTx()) {
+            GlobalGraphOperations graph = GlobalGraphOperations.at(db);
+            for (Node node : graph.getAllNodesWithLabel(ROOM)) {
+                writer.addRoom(node.getId(), (String) node.getProperty(NAME),
+                               (String) node.getProperty(LOCATION, null),
+                               (String) node.getProperty(DESCRIPTION, ""), node.hasLabel(UNEXPLORED));
+            }
+            for (Node node : graph.getAllNodesWithLabel(ROOM)) {
+                for (Relationship exit : node.getRelationships(EXIT, OUTGOING)) {
+                    writer.addExit(node.getId(), (String) exit.getProperty(NAME), exit.getEndNode().getId());
+                }
+            }
+            for (Node node : graph.getAllNodesWithLabel(FRONTIER)) {
+                List<String> exits = Arrays.asList((String[]) node.getProperty(EXITS));
+                for (String exit : (String[]) node.getProperty(OPEN, new String[0])) {
+                    long id = OpenExit.id(node.getId(), exits.indexOf(exit));
+                    writer.addRoom(id, OpenExit.NAME, null, "", true);
+                    writer.addExit(node.getId(), exit, id);
+                }
+            }
+            tx.success();
+        }
+        writer.write(file);
+        return writer.getRoomCount();
+    }
+
     @Override
     public RoomBuilder builder() {
         return new GraphRoomBuilder();
@@ -56,8 +223,85 @@ public class GraphRoomService implements RoomService {
         }
     }
 
+    /**
+     * Looks each room up by example, then creates the ones that weren't found together, with
+     * {@link RoomNode#createAll(List)}.
+     */
+    @Override
+    public List<Room> findOrCreateAll(List<? extends Room> rooms) {
+        List<Room> found = new ArrayList<>(rooms.size());
+        List<Room> missing = new ArrayList<>();
+        for (Room room : rooms) {
+            Room persisted = findByExample(room);
+            found.add(persisted);
+            if (persisted == null) {
+                missing.add(room);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Iterator<RoomNode> created = RoomNode.createAll(missing).iterator();
+            for (int i = 0; i < found.size(); i++) {
+                if (found.get(i) == null) {
+                    found.set(i, created.next());
+                }
+            }
+        }
+        return found;
+    }
+
+    private static Room findByExample(Room room) {
+        while (true) {
+            try {
+                return RoomNode.findByExample(room);
+            } catch (NotFoundException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public Room findById(long id) {
+        // Open exits have negative ids, and no node
+        return id < 0 ? null : RoomNode.findById(id);
+    }
+
+    @Override
+    public long countUnexplored() {
+        long count = 0;
+        try (org.neo4j.graphdb.Transaction tx = db.beginTx()) {
+            for (Node ignored : GlobalGraphOperations.at(db).getAllNodesWithLabel(UNEXPLORED)) {
+                count++;
+            }
+            for (Node node : GlobalGraphOperations.at(db).getAllNodesWithLabel(FRONTIER)) {
+                count += ((String[]) node.getProperty(OPEN, new String[0])).length;
+            }
+            tx.success();
+        }
+        return count;
+    }
+
+    /**
+     * @return a {@link RoutePlanner}, which weighs up teleports against exits, in the
+     *         {@link GraphLayout#PLACEHOLDERS} layout; it can't see open exits, so in the other it's
+     *         the search for the fewest exits
+     */
+    @Override
+    public RouteFinder routeFinder() {
+        return routeFinder;
+    }
+
+    /**
+     * Neo4j 2.0.1 gives a transaction its store resource the first time it reads the store. If that
+     * read is of a node's relationships, the node's monitor is held while the resource manager's is
+     * waited for, and a commit changing that node holds them the other way round: a deadlock
+     * between a crawler searching and another committing nearby. So the transaction is given its
+     * resource up front, before it has read anything.
+     */
     @Override
     public Transaction beginTransaction() {
-        return new GraphTransaction(db.beginTx());
+        org.neo4j.graphdb.Transaction transaction = db.beginTx();
+        if (persistence != null) {
+            persistence.getResource();
+        }
+        return new GraphTransaction(transaction, RoomNode.getLocks(), RoomNode.getCache());
     }
 }
@@ -9,9 +9,34 @@ import net.lazygun.micromuse.Transaction;
 public class GraphTransaction implements Transaction {
 
     private final org.neo4j.graphdb.Transaction transaction;
+    private final RoomLocks locks;
+    private final RoomCache cache;
 
     public GraphTransaction(org.neo4j.graphdb.Transaction transaction) {
+        this(transaction, null);
+    }
+
+    /**
+     * @param locks if not null, the room locks to hold, once taken, until this transaction closes
+     */
+    public GraphTransaction(org.neo4j.graphdb.Transaction transaction, RoomLocks locks) {
+        this(transaction, locks, null);
+    }
+
+    /**
+     * @param cache if not null, the room cache to keep the rooms this transaction changes out of,
+     *              until it closes
+     */
+    public GraphTransaction(org.neo4j.graphdb.Transaction transaction, RoomLocks locks, RoomCache cache) {
         this.transaction = transaction;
+        this.locks = locks;
+        this.cache = cache;
+        if (locks != null) {
+            locks.begin();
+        }
+        if (cache != null) {
+            cache.begin();
+        }
     }
 
     @Override
@@ -26,6 +51,15 @@ public class GraphTransaction implements Transaction {
 
     @Override
     public void close() {
-        transaction.close();
+        try {
+            transaction.close();
+        } finally {
+            if (cache != null) {
+                cache.end();
+            }
+            if (locks != null) {
+                locks.end();
+            }
+        }
     }
 }
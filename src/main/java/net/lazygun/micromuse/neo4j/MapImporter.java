@@ -0,0 +1,221 @@
+package net.lazygun.micromuse.neo4j;
+
+import net.lazygun.micromuse.Link;
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.record.LinkRecordReader;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.*;
+import static net.lazygun.micromuse.neo4j.RoomNode.Relation.EXIT;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Streams recorded links (see {@link net.lazygun.micromuse.record.LinkRecords}) straight into the
+ * graph, in the same shape {@link RoomNode} gives it: rooms are created with their fingerprints and
+ * an unexplored placeholder behind every exit, and each link replaces the placeholder behind its
+ * exit. Links that have already been made are skipped, so a recording can be imported on top of an
+ * existing graph.
+ * <p>
+ * Everything goes through the core API, bypassing Cypher and the example-matching in
+ * {@link RoomNode#findByExample(Room)}, and commits every {@link #getBatchSize()} links. Rooms are
+ * found by fingerprint, from a bounded cache of recently seen rooms first, so memory use doesn't
+ * grow with the size of the recording. The rest of each batch's rooms are merged into the graph
+ * together, before any of its links are made.
+ * <p>
+ * The database must already have the schema that {@link GraphRoomService} creates, and the
+ * fingerprints {@link RoomFingerprint} gives (see {@link FingerprintMigration}). It must also be laid
+ * out as the importer is told: in the {@link GraphLayout#OPEN_EXITS} layout, rooms are created with
+ * their exits open, and each link closes one.
+ *
+ * @author Ewan
+ */
+public class MapImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    public static final int DEFAULT_CACHE_SIZE = 100000;
+
+    private final GraphDatabaseService db;
+    private final int batchSize;
+    private final GraphLayout layout;
+    private final Map<RoomFingerprint.Key, Long> roomIds;
+
+    private long linksImported = 0;
+    private long linksSkipped = 0;
+    private long roomsCreated = 0;
+
+    public MapImporter(GraphDatabaseService db) {
+        this(db, DEFAULT_BATCH_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    public MapImporter(GraphDatabaseService db, int batchSize, int cacheSize) {
+        this(db, batchSize, cacheSize, GraphLayout.PLACEHOLDERS);
+    }
+
+    /**
+     * @param batchSize the number of links to import in each transaction
+     * @param cacheSize the number of room fingerprints to remember the node ids of
+     * @param layout how the database keeps track of unexplored exits
+     */
+    public MapImporter(GraphDatabaseService db, int batchSize, final int cacheSize, GraphLayout layout) {
+        this.db = db;
+        this.batchSize = batchSize;
+        this.layout = layout;
+        this.roomIds = new LinkedHashMap<RoomFingerprint.Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<RoomFingerprint.Key, Long> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Imports every link the reader has left.
+     *
+     * @return the number of links added to the graph
+     */
+    public long importLinks(LinkRecordReader reader) throws IOException {
+        long before = linksImported;
+        Link link = reader.read();
+        while (link != null) {
+            List<Link> batch = new ArrayList<>(batchSize);
+            for (; link != null && batch.size() < batchSize; link = reader.read()) {
+                batch.add(link);
+            }
+            try (Transaction tx = db.beginTx()) {
+                Map<RoomFingerprint.Key, Node> nodes = findOrCreateAll(batch);
+                for (Link imported : batch) {
+                    importLink(imported, nodes);
+                }
+                tx.success();
+            } catch (RuntimeException e) {
+                // The batch was rolled back, and the rooms it created with it
+                roomIds.clear();
+                throw e;
+            }
+        }
+        return linksImported - before;
+    }
+
+    public long importLinks(File recording) throws IOException {
+        try (LinkRecordReader reader = new LinkRecordReader(recording)) {
+            return importLinks(reader);
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getLinksImported() {
+        return linksImported;
+    }
+
+    public long getLinksSkipped() {
+        return linksSkipped;
+    }
+
+    public long getRoomsCreated() {
+        return roomsCreated;
+    }
+
+    private void importLink(Link link, Map<RoomFingerprint.Key, Node> nodes) {
+        Node from = nodes.get(key(link.getFrom()));
+        if (layout == GraphLayout.OPEN_EXITS) {
+            importOpenExit(from, nodes.get(key(link.getTo())), link);
+            return;
+        }
+        Relationship exit = null;
+        for (Relationship rel : from.getRelationships(EXIT, OUTGOING)) {
+            if (link.getExit().equals(rel.getProperty(NAME))) {
+                exit = rel;
+                break;
+            }
+        }
+        if (exit == null) {
+            throw new IllegalArgumentException(link.getFrom().getName() + " has no exit '" + link.getExit() + "'");
+        }
+        Node placeholder = exit.getEndNode();
+        if (!placeholder.hasLabel(UNEXPLORED)) {
+            linksSkipped++;
+            return;
+        }
+        Node to = nodes.get(key(link.getTo()));
+        exit.delete();
+        placeholder.delete();
+        createExitRelationship(from, to, link.getExit());
+        linksImported++;
+    }
+
+    private void importOpenExit(Node from, Node to, Link link) {
+        if (!closeExit(from, link.getExit())) {
+            if (!link.getFrom().getExits().contains(link.getExit())) {
+                throw new IllegalArgumentException(link.getFrom().getName() + " has no exit '" + link.getExit() + "'");
+            }
+            linksSkipped++;
+            return;
+        }
+        createExitRelationship(from, to, link.getExit());
+        linksImported++;
+    }
+
+    /**
+     * Finds the rooms at either end of each link, from the cache if they're in it, and merges the
+     * rest into the graph as one batch, with {@link RoomNode#mergeAll}.
+     */
+    private Map<RoomFingerprint.Key, Node> findOrCreateAll(List<Link> links) {
+        Map<RoomFingerprint.Key, Node> nodes = new HashMap<>();
+        Map<RoomFingerprint.Key, Room> missing = new LinkedHashMap<>();
+        for (Link link : links) {
+            for (Room room : Arrays.asList(link.getFrom(), link.getTo())) {
+                RoomFingerprint.Key key = key(room);
+                if (nodes.containsKey(key) || missing.containsKey(key)) {
+                    continue;
+                }
+                Long id = roomIds.get(key);
+                if (id != null) {
+                    nodes.put(key, db.getNodeById(id));
+                } else {
+                    missing.put(key, room);
+                }
+            }
+        }
+        List<Node> created = new ArrayList<>();
+        for (Map.Entry<RoomFingerprint.Key, Node> merged : mergeAll(db, layout, missing, created).entrySet()) {
+            nodes.put(merged.getKey(), merged.getValue());
+            roomIds.put(merged.getKey(), merged.getValue().getId());
+        }
+        roomsCreated += created.size();
+        return nodes;
+    }
+
+    /**
+     * Imports recordings into an embedded database, new or existing:
+     * {@code MapImporter <db path> <recording>...}
+     */
+    public static void main(String[] args) throws IOException {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(args[0]);
+        try {
+            MapImporter importer = new GraphRoomService(db).importer();
+            long started = System.currentTimeMillis();
+            for (int i = 1; i < args.length; i++) {
+                importer.importLinks(new File(args[i]));
+            }
+            System.out.println("Imported " + importer.getLinksImported() + " links and created " +
+                               importer.getRoomsCreated() + " rooms in " +
+                               (System.currentTimeMillis() - started) / 1000 + "s; skipped " +
+                               importer.getLinksSkipped() + " links already in the graph.");
+        } finally {
+            db.shutdown();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package net.lazygun.micromuse.neo4j;
+
+import net.lazygun.micromuse.Link;
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.Route;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The unexplored room behind an open exit, in the {@link GraphLayout#OPEN_EXITS} layout, where
+ * there's no node for it. It takes its id from its room's and the exit's place among the room's
+ * (sorted) exits, negated so that it can never be mistaken for a node's, and so it's the same id
+ * every time the exit is seen, for as long as the exit stays open.
+ *
+ * @author Ewan
+ */
+public class OpenExit implements Room {
+
+    static final String NAME = "UNEXPLORED";
+
+    private final Room from;
+    private final String exit;
+    private final long id;
+
+    OpenExit(Room from, String exit, int exitIndex) {
+        this.from = from;
+        this.exit = exit;
+        this.id = id(from.getId(), exitIndex);
+    }
+
+    static long id(long roomId, int exitIndex) {
+        return -1 - (roomId << 16 | exitIndex);
+    }
+
+    /**
+     * @return the room whose exit this is
+     */
+    public Room getFrom() {
+        return from;
+    }
+
+    public String getExit() {
+        return exit;
+    }
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public String getLocation() {
+        return null;
+    }
+
+    @Override
+    public String getDescription() {
+        return "";
+    }
+
+    @Override
+    public List<String> getExits() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isTeleportable() {
+        return false;
+    }
+
+    @Override
+    public boolean isUnexplored() {
+        return true;
+    }
+
+    @Override
+    public Link link(String exit, Room to) {
+        throw new IllegalArgumentException(toString() + " has no exit '" + exit + "'");
+    }
+
+    @Override
+    public Route findNearestUnexplored() {
+        return null;
+    }
+
+    @Override
+    public Route findNearestUnexplored(Set<Long> excluding) {
+        return null;
+    }
+
+    @Override
+    public Room exit(String exit) {
+        throw new IllegalArgumentException("Room has no exit name '" + exit + "'");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof OpenExit && ((OpenExit) o).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.valueOf(id).hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "OpenExit{from=" + from.getId() + ",exit=" + exit + ",id=" + id + "}";
+    }
+}
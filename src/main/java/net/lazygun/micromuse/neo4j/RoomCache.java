@@ -0,0 +1,242 @@
+package net.lazygun.micromuse.neo4j;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.FINGERPRINT;
+
+/**
+ * A bounded, least-recently-used cache of {@link RoomSnapshot}s, keyed by node id. It's split into
+ * up to {@link #STRIPES} stripes by node id, each its own LRU with its own lock and share of the
+ * maximum size, so crawlers viewing different rooms don't wait on each other.
+ * <p>
+ * Snapshots are dropped when a transaction that changes their node commits, or fails to. Node ids
+ * can be reused once a node is gone, so a cached snapshot is only trusted if its fingerprint still
+ * matches the node's. That costs one property read, where loading a snapshot costs several plus a
+ * walk of every exit.
+ * <p>
+ * A room that the transaction on the current thread is {@link #changing(long) changing} is loaded
+ * afresh every time, and never cached, since nobody else can see it as it is until the
+ * transaction commits, and it may never. The rooms are forgotten when the thread next commits, or
+ * when the outermost {@link #begin() scope} around its changes, such as a {@link GraphTransaction},
+ * ends, so a transaction that's rolled back doesn't leave them behind.
+ *
+ * @author Ewan
+ */
+public class RoomCache {
+
+    public static final int DEFAULT_SIZE = 10000;
+    static final int STRIPES = 16;
+
+    private final int maxSize;
+    private final Map<Long, RoomSnapshot>[] stripes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final ThreadLocal<Changing> changing = new ThreadLocal<Changing>() {
+        @Override
+        protected Changing initialValue() {
+            return new Changing();
+        }
+    };
+
+    @SuppressWarnings("unchecked")
+    public RoomCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.stripes = new Map[Math.max(1, Math.min(STRIPES, maxSize))];
+        for (int i = 0; i < stripes.length; i++) {
+            // Share out the maximum size, so the stripes never hold more than it between them
+            final int stripeSize = maxSize / stripes.length + (i < maxSize % stripes.length ? 1 : 0);
+            stripes[i] = new LinkedHashMap<Long, RoomSnapshot>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, RoomSnapshot> eldest) {
+                    if (size() > stripeSize) {
+                        evictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    RoomSnapshot get(Node node) {
+        if (changing.get().ids.contains(node.getId())) {
+            misses.incrementAndGet();
+            return RoomSnapshot.load(node);
+        }
+        Map<Long, RoomSnapshot> snapshots = stripe(node.getId());
+        RoomSnapshot snapshot;
+        synchronized (snapshots) {
+            snapshot = snapshots.get(node.getId());
+        }
+        if (snapshot != null && Objects.deepEquals(snapshot.fingerprint, node.getProperty(FINGERPRINT, null))) {
+            hits.incrementAndGet();
+            return snapshot;
+        }
+        misses.incrementAndGet();
+        long seen = invalidations.get();
+        snapshot = RoomSnapshot.load(node);
+        synchronized (snapshots) {
+            // If anything was invalidated while we were loading, what we loaded may be what was
+            // just invalidated, so don't keep it
+            if (invalidations.get() == seen) {
+                snapshots.put(node.getId(), snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Marks a room as being changed by the transaction on the current thread, before it's changed.
+     */
+    void changing(long nodeId) {
+        changing.get().ids.add(nodeId);
+    }
+
+    /**
+     * Marks the start of a scope, such as a transaction, whose changes are kept out of the cache
+     * until it, and every scope around it, has ended.
+     */
+    void begin() {
+        changing.get().depth++;
+    }
+
+    /**
+     * Ends the innermost scope on this thread, forgetting the rooms it was changing if it was the
+     * last, whether its transaction committed or not.
+     */
+    void end() {
+        if (--changing.get().depth <= 0) {
+            changing.remove();
+        }
+    }
+
+    /**
+     * @return the number of rooms the transaction on the current thread is changing
+     */
+    int changingCount() {
+        return changing.get().ids.size();
+    }
+
+    void invalidate(long nodeId) {
+        Map<Long, RoomSnapshot> snapshots = stripe(nodeId);
+        synchronized (snapshots) {
+            invalidations.incrementAndGet();
+            snapshots.remove(nodeId);
+        }
+    }
+
+    public void clear() {
+        for (Map<Long, RoomSnapshot> snapshots : stripes) {
+            synchronized (snapshots) {
+                snapshots.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<Long, RoomSnapshot> snapshots : stripes) {
+            synchronized (snapshots) {
+                size += snapshots.size();
+            }
+        }
+        return size;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RoomCache{size=" + size() + ",hits=" + getHits() + ",misses=" + getMisses() +
+               ",evictions=" + getEvictions() + "}";
+    }
+
+    /**
+     * @return a handler that invalidates the snapshot of every room a transaction has changed
+     *         (deleted, re-propertied, or had an exit added or removed) once it's committed or
+     *         rolled back. This version of Neo4j doesn't report label changes, but rooms never
+     *         change labels once created.
+     */
+    TransactionEventHandler<Set<Long>> invalidator() {
+        return new TransactionEventHandler<Set<Long>>() {
+            @Override
+            public Set<Long> beforeCommit(TransactionData data) throws Exception {
+                changing.get().ids.clear();
+                Set<Long> changed = new HashSet<>();
+                for (Node node : data.deletedNodes()) {
+                    changed.add(node.getId());
+                }
+                for (Relationship rel : data.createdRelationships()) {
+                    changed.add(rel.getStartNode().getId());
+                }
+                for (Relationship rel : data.deletedRelationships()) {
+                    try {
+                        changed.add(rel.getStartNode().getId());
+                    } catch (NotFoundException ignored) {
+                        // Nothing left to read; its start node is caught by one of the other checks
+                    }
+                }
+                for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+                    changed.add(entry.entity().getId());
+                }
+                for (PropertyEntry<Node> entry : data.removedNodeProperties()) {
+                    changed.add(entry.entity().getId());
+                }
+                return changed;
+            }
+
+            @Override
+            public void afterCommit(TransactionData data, Set<Long> changed) {
+                for (Long id : changed) {
+                    invalidate(id);
+                }
+            }
+
+            @Override
+            public void afterRollback(TransactionData data, Set<Long> changed) {
+                if (changed != null) {
+                    for (Long id : changed) {
+                        invalidate(id);
+                    }
+                }
+            }
+        };
+    }
+
+    private Map<Long, RoomSnapshot> stripe(long nodeId) {
+        return stripes[(int) ((nodeId ^ (nodeId >>> 32)) & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    private static class Changing {
+        private final Set<Long> ids = new HashSet<>();
+        private int depth;
+    }
+}
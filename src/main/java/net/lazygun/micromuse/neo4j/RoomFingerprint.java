@@ -0,0 +1,157 @@
+package net.lazygun.micromuse.neo4j;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.UNEXPLORED;
+
+/**
+ * Fingerprints rooms with a 128-bit hash (MurmurHash3's mixing, over 128-bit blocks) of their
+ * name, location and exits, stored on the room as a pair of longs. The values are encoded with
+ * their lengths first, so characters can't move from one value to the next without changing the
+ * hash, and a missing location is told apart from an empty one. The exits are hashed one by one
+ * and added together, so their order doesn't matter and they never have to be copied and sorted.
+ * <p>
+ * Rooms are fingerprinted every time one is created or looked up, so each thread reuses one
+ * hasher, and the only thing allocated is the fingerprint itself. Stores fingerprinted with the
+ * MD5 hex strings used before need a {@link FingerprintMigration}. Routes check the rooms they
+ * pass through against the same fingerprints, with {@link net.lazygun.micromuse.ExpectedRooms}.
+ *
+ * @author Ewan
+ */
+public final class RoomFingerprint {
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final ThreadLocal<RoomFingerprint> HASHERS = new ThreadLocal<RoomFingerprint>() {
+        @Override
+        protected RoomFingerprint initialValue() {
+            return new RoomFingerprint();
+        }
+    };
+
+    private long h1;
+    private long h2;
+    private long blocks;
+
+    private RoomFingerprint() {
+    }
+
+    public static long[] of(String name, String location, Collection<String> exits) {
+        if (name.equals(UNEXPLORED.name())) {
+            // No two unexplored rooms are the same room
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            return new long[] {random.nextLong(), random.nextLong()};
+        }
+        RoomFingerprint hasher = HASHERS.get();
+        long exits1 = 0;
+        long exits2 = 0;
+        for (String exit : exits) {
+            hasher.reset();
+            hasher.add(exit);
+            hasher.finish();
+            exits1 += hasher.h1;
+            exits2 += hasher.h2;
+        }
+        hasher.reset();
+        hasher.add(name);
+        hasher.add(location);
+        hasher.block(exits.size(), 0);
+        hasher.block(exits1, exits2);
+        hasher.finish();
+        return new long[] {hasher.h1, hasher.h2};
+    }
+
+    private void reset() {
+        h1 = 0;
+        h2 = 0;
+        blocks = 0;
+    }
+
+    private void add(String value) {
+        if (value == null) {
+            block(-1, 0);
+            return;
+        }
+        int length = value.length();
+        block(length, 0);
+        for (int i = 0; i < length; i += 8) {
+            block(pack(value, i), pack(value, i + 4));
+        }
+    }
+
+    private static long pack(String value, int from) {
+        long packed = 0;
+        for (int i = Math.min(from + 4, value.length()) - 1; i >= from; i--) {
+            packed = packed << 16 | value.charAt(i);
+        }
+        return packed;
+    }
+
+    private void block(long k1, long k2) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+        h1 ^= k1;
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+        h2 ^= k2;
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+
+        blocks++;
+    }
+
+    private void finish() {
+        h1 ^= blocks;
+        h2 ^= blocks;
+        h1 += h2;
+        h2 += h1;
+        h1 = mix(h1);
+        h2 = mix(h2);
+        h1 += h2;
+        h2 += h1;
+    }
+
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /**
+     * A fingerprint that can be used as a key, to remember rooms by.
+     */
+    static final class Key {
+        private final long[] fingerprint;
+
+        Key(long[] fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        long[] getFingerprint() {
+            return fingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && Arrays.equals(fingerprint, ((Key) o).fingerprint);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(fingerprint);
+        }
+    }
+}
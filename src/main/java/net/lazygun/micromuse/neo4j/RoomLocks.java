@@ -0,0 +1,151 @@
+package net.lazygun.micromuse.neo4j;
+
+import net.lazygun.micromuse.TraversalException;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks on rooms, taken before the graph is changed so that Neo4j never has to find a
+ * deadlock between two transactions linking nearby rooms. A link locks the room it leads from and
+ * the room it leads to.
+ * <p>
+ * Each room id maps onto one of a fixed number of stripes, and the stripes a change needs are
+ * always taken in ascending order, so no two threads can each be waiting for a stripe the other
+ * holds. Neo4j holds its own locks until the transaction commits, so stripes are held until the
+ * outermost {@link GraphTransaction} on the thread is closed; outside of one they're released as
+ * soon as the change is made.
+ * <p>
+ * A transaction that makes several changes, such as a batch of links, can need a stripe lower than
+ * one it already holds. Waiting for it then could deadlock, so it's only taken if it's free, and
+ * otherwise the change fails with a {@link TraversalException}, leaving the caller to roll back and
+ * try again with fewer changes per transaction.
+ * <p>
+ * Stripes are only taken when a link is made, by which time the transaction may already hold
+ * Neo4j's locks on rooms it has created, and Neo4j can't see a thread waiting on a stripe, so it
+ * can't break a deadlock between the two. So no stripe is waited for longer than a timeout: one
+ * that isn't free by then fails the change with a {@link TraversalException} too, and rolling back
+ * frees whatever the other transaction was waiting on.
+ *
+ * @author Ewan
+ */
+public class RoomLocks {
+
+    public static final int DEFAULT_STRIPES = 1024;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 2000;
+
+    private final ReentrantLock[] stripes;
+    private final long timeoutMillis;
+    private final AtomicLong conflicts = new AtomicLong();
+    private final ThreadLocal<Held> held = new ThreadLocal<Held>() {
+        @Override
+        protected Held initialValue() {
+            return new Held();
+        }
+    };
+
+    public RoomLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public RoomLocks(int stripes) {
+        this(stripes, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param timeoutMillis the longest to wait for a stripe that's free to wait for
+     */
+    public RoomLocks(int stripes, long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Marks the start of a scope, such as a transaction, that keeps every stripe taken within it
+     * until it, and every scope around it, has ended.
+     */
+    void begin() {
+        held.get().depth++;
+    }
+
+    /**
+     * Ends the innermost scope on this thread, releasing every stripe held if it was the last.
+     */
+    void end() {
+        Held mine = held.get();
+        if (--mine.depth > 0) {
+            return;
+        }
+        for (int stripe = mine.stripes.nextSetBit(0); stripe >= 0; stripe = mine.stripes.nextSetBit(stripe + 1)) {
+            stripes[stripe].unlock();
+        }
+        held.remove();
+    }
+
+    /**
+     * Takes the stripes of the given rooms, lowest first, for the rest of the current scope.
+     *
+     * @throws TraversalException if a stripe lower than one already held is taken by another thread,
+     *                            or any other isn't free within the timeout
+     */
+    void lock(long... roomIds) throws TraversalException {
+        Held mine = held.get();
+        if (mine.depth == 0) {
+            throw new IllegalStateException("Rooms can only be locked within a scope");
+        }
+        int[] needed = new int[roomIds.length];
+        for (int i = 0; i < roomIds.length; i++) {
+            needed[i] = stripe(roomIds[i]);
+        }
+        Arrays.sort(needed);
+        for (int stripe : needed) {
+            if (mine.stripes.get(stripe)) {
+                continue;
+            }
+            if (stripe >= mine.stripes.length()) {
+                if (!tryLock(stripe, timeoutMillis)) {
+                    conflicts.incrementAndGet();
+                    throw new TraversalException("Room lock " + stripe + " wasn't free within " + timeoutMillis + "ms");
+                }
+            } else if (!stripes[stripe].tryLock()) {
+                conflicts.incrementAndGet();
+                throw new TraversalException("Room lock " + stripe + " is held by another transaction, and is " +
+                                             "lower than one already held by this one");
+            }
+            mine.stripes.set(stripe);
+        }
+    }
+
+    private boolean tryLock(int stripe, long millis) throws TraversalException {
+        try {
+            return stripes[stripe].tryLock(millis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TraversalException(e);
+        }
+    }
+
+    /**
+     * @return the number of times a change was turned away rather than risk a deadlock
+     */
+    public long getConflicts() {
+        return conflicts.get();
+    }
+
+    private int stripe(long roomId) {
+        int hash = (int) (roomId ^ (roomId >>> 32));
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % stripes.length;
+    }
+
+    private static class Held {
+        private int depth = 0;
+        private final BitSet stripes = new BitSet();
+    }
+}
@@ -0,0 +1,84 @@
+package net.lazygun.micromuse.neo4j;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+
+import java.util.*;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.*;
+import static net.lazygun.micromuse.neo4j.RoomNode.Relation.EXIT;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * An immutable copy of everything a {@link RoomNode} reads from its node when it's made, so that
+ * it only has to be read once for as long as the node doesn't change. That includes the id of the
+ * relationship behind each exit, so that going through an exit is one hash lookup rather than a
+ * walk of every exit reading its name. In the {@link GraphLayout#OPEN_EXITS} layout, it includes
+ * the exits that are still open, too.
+ *
+ * @author Ewan
+ */
+final class RoomSnapshot {
+
+    final String name;
+    final String location;
+    final String description;
+    final List<String> exits;
+    final List<String> open;
+    final boolean teleportable;
+    final boolean unexplored;
+    final Object fingerprint;
+    final Map<String, Long> exitIds;
+
+    private RoomSnapshot(Node node) {
+        name = (String) node.getProperty(NAME);
+        location = (String) node.getProperty(LOCATION, null);
+        description = (String) node.getProperty(DESCRIPTION);
+        fingerprint = node.getProperty(FINGERPRINT, null);
+        teleportable = node.hasLabel(TELEPORTABLE);
+        unexplored = node.hasLabel(UNEXPLORED);
+        exits = Collections.unmodifiableList(readExits(node));
+        String[] stored = (String[]) node.getProperty(OPEN, null);
+        open = stored == null ? Collections.<String>emptyList() : Arrays.asList(stored);
+        exitIds = Collections.unmodifiableMap(readExitIds(node));
+    }
+
+    boolean hasExit(String exit) {
+        return exitIds.containsKey(exit) || exits.contains(exit);
+    }
+
+    /**
+     * Reads a room's exits from the property they were stored in when it was created, which is read
+     * in one go. Walking the room's exit relationships instead can catch another transaction half
+     * way through committing a link, and see its exit twice, or not at all; that's only done for
+     * rooms created before the property was.
+     */
+    private static List<String> readExits(Node node) {
+        String[] stored = (String[]) node.getProperty(EXITS, null);
+        if (stored != null) {
+            return Arrays.asList(stored);
+        }
+        SortedSet<String> exitNames = new TreeSet<>();
+        for (Relationship rel : node.getRelationships(EXIT, OUTGOING)) {
+            exitNames.add((String) rel.getProperty(NAME));
+        }
+        return new ArrayList<>(exitNames);
+    }
+
+    /**
+     * Reads the id of the relationship behind each exit. Caught half way through another
+     * transaction's link, this can miss an exit or hold the id of one that's about to be deleted,
+     * so ids read from here must be checked, and looked for the slow way if they're wrong.
+     */
+    private static Map<String, Long> readExitIds(Node node) {
+        Map<String, Long> ids = new HashMap<>();
+        for (Relationship rel : node.getRelationships(EXIT, OUTGOING)) {
+            ids.put((String) rel.getProperty(NAME), rel.getId());
+        }
+        return ids;
+    }
+
+    static RoomSnapshot load(Node node) {
+        return new RoomSnapshot(node);
+    }
+}
@@ -0,0 +1,294 @@
+package net.lazygun.micromuse.neo4j;
+
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.Route;
+import net.lazygun.micromuse.RouteFinder;
+import net.lazygun.micromuse.TraversalException;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.LOCATION;
+import static net.lazygun.micromuse.neo4j.RoomNode.Relation.EXIT;
+import static net.lazygun.micromuse.neo4j.RoomNode.TELEPORTABLE;
+import static net.lazygun.micromuse.neo4j.RoomNode.UNEXPLORED;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Plans the cheapest route between rooms, counting teleports as well as exits.
+ * <p>
+ * A teleport can be made from anywhere to any teleportable room, so every teleportable room is a
+ * potential starting point, one teleport away. Routes are found with Dijkstra's algorithm over that
+ * graph, priced by a {@link CostModel}. A planned route either starts in the room it was planned
+ * from, or in the teleportable room that should be teleported to first. It is empty if the target
+ * itself is best reached by teleporting straight to it.
+ * <p>
+ * The teleportable rooms are read with one scan of their label, the first time they're needed,
+ * and kept up to date from then on as transactions that give rooms a location commit, since rooms
+ * are only ever given one when they're created.
+ * <p>
+ * It's the {@link RouteFinder} a {@link GraphRoomService} gives its crawls in the
+ * {@link GraphLayout#PLACEHOLDERS} layout, where every unexplored room is a node to plan to. A
+ * route to the nearest unexplored room either takes exits all the way, or teleports once and then
+ * takes exits, so it's planned with the room's {@link UnexploredFinder} instead: from the room
+ * first, and then, only if that's far enough away that teleporting could be cheaper, from the
+ * teleportable rooms, one exit further at a time, until one is near enough to beat it. Linking an
+ * exit only ever takes rooms further from the frontier, so how far each teleportable room was
+ * found to be is kept, and it isn't searched from again until the search gets that far.
+ *
+ * @author Ewan
+ */
+public class RoutePlanner implements RouteFinder {
+
+    private final GraphDatabaseService db;
+    private final CostModel costs;
+    private final Set<Long> teleportables = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    // The fewest exits from each teleportable room it's been searched from to an unexplored room
+    private final ConcurrentMap<Long, Integer> nearestAtLeast = new ConcurrentHashMap<>();
+    private volatile boolean scanned = false;
+
+    public RoutePlanner(GraphDatabaseService db) {
+        this(db, CostModel.COMMANDS);
+    }
+
+    public RoutePlanner(GraphDatabaseService db, CostModel costs) {
+        this.db = db;
+        this.costs = costs;
+        db.registerTransactionEventHandler(new TransactionEventHandler.Adapter<Set<Long>>() {
+            @Override
+            public Set<Long> beforeCommit(TransactionData data) throws Exception {
+                Set<Long> located = new HashSet<>();
+                for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+                    if (entry.key().equals(LOCATION)) {
+                        located.add(entry.entity().getId());
+                    }
+                }
+                return located;
+            }
+
+            @Override
+            public void afterCommit(TransactionData data, Set<Long> located) {
+                teleportables.addAll(located);
+            }
+        });
+    }
+
+    /**
+     * @return the cheapest route from one room to another, or null if there isn't one
+     */
+    public Route plan(Room from, final Room to) {
+        return search(db.getNodeById(from.getId()), new Target() {
+            @Override
+            public boolean isReachedAt(Node node) {
+                return node.getId() == to.getId();
+            }
+        });
+    }
+
+    /**
+     * @return the cheapest route from the given room to an unexplored room not in the excluded
+     *         set, or null if there isn't one
+     */
+    public Route planToNearestUnexplored(Room from, final Set<Long> excluding) {
+        UnexploredFinder finder = RoomNode.getUnexploredFinder();
+        Node start = db.getNodeById(from.getId());
+        List<Relationship> walk = finder.find(start, excluding);
+        if (walk == null) {
+            // Nothing left to walk to, so it's a long way to anywhere; there's no telling how far
+            return search(start, new Target() {
+                @Override
+                public boolean isReachedAt(Node node) {
+                    return node.hasLabel(UNEXPLORED) && !excluding.contains(node.getId());
+                }
+            });
+        }
+        // The most exits a route can take after teleporting, and still be cheaper than walking.
+        // Unexplored rooms are never teleportable, so it has to take at least one.
+        int within = (walk.size() * costs.getExitCost() - costs.getTeleportCost() - 1) / costs.getExitCost();
+        if (within < 1) {
+            return RoomNode.pathToRoute(walk);
+        }
+        // Search from the teleportable rooms that could be nearest first, one exit further each time
+        SortedMap<Integer, List<Long>> byDistance = new TreeMap<>();
+        for (long id : teleportables()) {
+            Integer atLeast = nearestAtLeast.get(id);
+            atLeastThisFar(byDistance, atLeast == null ? 1 : atLeast, within).add(id);
+        }
+        while (!byDistance.isEmpty()) {
+            int distance = byDistance.firstKey();
+            for (long id : byDistance.remove(distance)) {
+                Node teleportable = teleportable(id);
+                if (teleportable == null) {
+                    continue;
+                }
+                List<Relationship> route = finder.find(teleportable, Collections.<Long>emptySet(), distance);
+                nearestAtLeast.put(id, route == null ? distance + 1 : route.size());
+                if (route != null && excluding.contains(route.get(route.size() - 1).getEndNode().getId())) {
+                    route = finder.find(teleportable, excluding, distance);
+                }
+                if (route != null) {
+                    return RoomNode.pathToRoute(route);
+                }
+                atLeastThisFar(byDistance, distance + 1, within).add(id);
+            }
+        }
+        return RoomNode.pathToRoute(walk);
+    }
+
+    private static List<Long> atLeastThisFar(SortedMap<Integer, List<Long>> byDistance, int distance, int within) {
+        if (distance > within) {
+            return new ArrayList<>();
+        }
+        List<Long> ids = byDistance.get(distance);
+        if (ids == null) {
+            ids = new ArrayList<>();
+            byDistance.put(distance, ids);
+        }
+        return ids;
+    }
+
+    /**
+     * @return the teleportable room with the given id, or null if it isn't one anymore
+     */
+    private Node teleportable(long id) {
+        try {
+            Node teleportable = db.getNodeById(id);
+            if (teleportable.hasLabel(TELEPORTABLE)) {
+                return teleportable;
+            }
+        } catch (NotFoundException ignored) {
+        }
+        // Created by a transaction that was rolled back, and maybe its id taken since
+        teleportables.remove(id);
+        return null;
+    }
+
+    @Override
+    public Route findNearestUnexplored(Room from, Set<Long> excluding) throws TraversalException {
+        try {
+            return planToNearestUnexplored(from, excluding);
+        } catch (NotFoundException e) {
+            throw new TraversalException(e);
+        }
+    }
+
+    @Override
+    public Route find(Room from, Room to) throws TraversalException {
+        try {
+            return plan(from, to);
+        } catch (NotFoundException e) {
+            throw new TraversalException(e);
+        }
+    }
+
+    @Override
+    public boolean isPlanned() {
+        return true;
+    }
+
+    private Route search(Node start, Target target) {
+        Map<Long, Relationship> reachedBy = new HashMap<>();
+        Map<Long, Integer> costTo = new HashMap<>();
+        Set<Long> settled = new HashSet<>();
+        PriorityQueue<Step> queue = new PriorityQueue<>();
+
+        reachedBy.put(start.getId(), null);
+        costTo.put(start.getId(), 0);
+        queue.add(new Step(start, 0));
+        for (long id : teleportables()) {
+            Node teleportable = costTo.containsKey(id) ? null : teleportable(id);
+            if (teleportable != null) {
+                reachedBy.put(id, null);
+                costTo.put(id, costs.getTeleportCost());
+                queue.add(new Step(teleportable, costs.getTeleportCost()));
+            }
+        }
+
+        while (!queue.isEmpty()) {
+            Step step = queue.poll();
+            long id = step.node.getId();
+            if (!settled.add(id)) {
+                continue;
+            }
+            try {
+                if (target.isReachedAt(step.node)) {
+                    return RoomNode.pathToRoute(routeTo(id, reachedBy));
+                }
+                if (step.node.hasLabel(UNEXPLORED)) {
+                    continue;
+                }
+                expand(step, queue, costTo, reachedBy);
+            } catch (NotFoundException ignored) {
+                // A placeholder replaced by a crawler since we reached it, which leads nowhere now
+            }
+        }
+        return null;
+    }
+
+    private Set<Long> teleportables() {
+        if (!scanned) {
+            synchronized (teleportables) {
+                if (!scanned) {
+                    for (Node teleportable : GlobalGraphOperations.at(db).getAllNodesWithLabel(TELEPORTABLE)) {
+                        teleportables.add(teleportable.getId());
+                    }
+                    scanned = true;
+                }
+            }
+        }
+        return teleportables;
+    }
+
+    private void expand(Step step, Queue<Step> queue, Map<Long, Integer> costTo, Map<Long, Relationship> reachedBy) {
+        int cost = step.cost + costs.getExitCost();
+        for (Relationship rel : step.node.getRelationships(EXIT, OUTGOING)) {
+            try {
+                Node end = rel.getEndNode();
+                Integer known = costTo.get(end.getId());
+                if (known == null || cost < known) {
+                    costTo.put(end.getId(), cost);
+                    reachedBy.put(end.getId(), rel);
+                    queue.add(new Step(end, cost));
+                }
+            } catch (NotFoundException ignored) {
+                // Replaced by a crawler since we listed it
+            }
+        }
+    }
+
+    private List<Relationship> routeTo(long id, Map<Long, Relationship> reachedBy) {
+        LinkedList<Relationship> route = new LinkedList<>();
+        for (Relationship rel = reachedBy.get(id); rel != null; rel = reachedBy.get(rel.getStartNode().getId())) {
+            route.addFirst(rel);
+        }
+        return route;
+    }
+
+    private interface Target {
+        boolean isReachedAt(Node node);
+    }
+
+    private static class Step implements Comparable<Step> {
+        private final Node node;
+        private final int cost;
+
+        private Step(Node node, int cost) {
+            this.node = node;
+            this.cost = cost;
+        }
+
+        @Override
+        public int compareTo(Step other) {
+            return Integer.compare(cost, other.cost);
+        }
+    }
+}
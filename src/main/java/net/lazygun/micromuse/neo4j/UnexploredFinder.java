@@ -0,0 +1,214 @@
+package net.lazygun.micromuse.neo4j;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static net.lazygun.micromuse.neo4j.RoomNode.Relation.EXIT;
+import static org.neo4j.graphdb.Direction.INCOMING;
+import static org.neo4j.graphdb.Direction.OUTGOING;
+
+/**
+ * Finds the shortest route from a room to its nearest unexplored room.
+ * <p>
+ * Searches are node-unique and level-synchronous, so each room is expanded at most once and the
+ * search stops at the first unexplored room it comes across. Every search also leaves behind a
+ * hint on each room along the route it found that's within {@link #MAX_DISTANCE} of the end: the
+ * next exit to take and how far away the frontier is. Later searches follow those hints first, and
+ * only fall back to a full search when a hint has gone stale (its exit has been replaced or its
+ * unexplored room claimed).
+ * <p>
+ * A hint is only ever the length of the shortest route from its room. Linking an exit replaces the
+ * unexplored room one exit away from its room with a room at least as far from the frontier, so it
+ * can only ever make routes longer, never shorter; and a new room's unexplored exits can only be
+ * reached through the link made to it. So a hint can go stale, but only by leading somewhere that
+ * isn't there anymore: following one checks each exit it takes is still there, and leads to an
+ * unexplored room in as many exits as the hint said, which makes it the shortest route there is.
+ * {@link #linked(Node, long)} drops the hints that led through a replaced exit, so they don't have
+ * to be found stale. There are at most {@link #DEFAULT_MAX_HINTS} hints, and when there would be
+ * more, they're all dropped, to be left again by the searches that follow.
+ *
+ * @author Ewan
+ */
+class UnexploredFinder {
+
+    /** The furthest from the frontier a room can be and still have a hint. */
+    static final int MAX_DISTANCE = 8;
+
+    static final int DEFAULT_MAX_HINTS = 100000;
+
+    private final GraphDatabaseService db;
+    private final Label unexplored;
+    private final int maxHints;
+    private final ConcurrentMap<Long, Hint> hints = new ConcurrentHashMap<>();
+
+    UnexploredFinder(GraphDatabaseService db, Label unexplored) {
+        this(db, unexplored, DEFAULT_MAX_HINTS);
+    }
+
+    UnexploredFinder(GraphDatabaseService db, Label unexplored, int maxHints) {
+        this.db = db;
+        this.unexplored = unexplored;
+        this.maxHints = maxHints;
+    }
+
+    /**
+     * @return the relationships along the shortest route from the given node to an unexplored
+     *         room not in the excluded set, or null if there isn't one
+     */
+    List<Relationship> find(Node start, Set<Long> excluding) {
+        return find(start, excluding, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the relationships along the shortest route from the given node to an unexplored
+     *         room not in the excluded set, or null if there isn't one within the given number of
+     *         exits
+     */
+    List<Relationship> find(Node start, Set<Long> excluding, int maxDistance) {
+        List<Relationship> route = followHints(start, excluding);
+        if (route == null) {
+            route = search(start, excluding, maxDistance);
+        }
+        return route == null || route.size() > maxDistance ? null : route;
+    }
+
+    /**
+     * Called when a room's exit, whose relationship led to an unexplored room, has been linked to
+     * another room instead. Drops the hints that led to the unexplored room.
+     */
+    void linked(Node room, long replaced) {
+        forget(room, replaced, MAX_DISTANCE);
+    }
+
+    int size() {
+        return hints.size();
+    }
+
+    /**
+     * Drops the hint on the given room if it's through the given relationship, and the hints of
+     * every room that led through it, as far as they go.
+     */
+    private void forget(Node room, long through, int depth) {
+        Hint hint = hints.get(room.getId());
+        if (hint == null || hint.relationship != through || !hints.remove(room.getId(), hint) || depth == 0) {
+            return;
+        }
+        for (Relationship rel : room.getRelationships(EXIT, INCOMING)) {
+            forget(rel.getStartNode(), rel.getId(), depth - 1);
+        }
+    }
+
+    private List<Relationship> followHints(Node start, Set<Long> excluding) {
+        Hint hint = hints.get(start.getId());
+        if (hint == null) {
+            return null;
+        }
+        List<Relationship> route = new ArrayList<>(hint.distance);
+        Node current = start;
+        try {
+            for (int remaining = hint.distance; remaining > 0; remaining--) {
+                Hint step = hints.get(current.getId());
+                if (step == null || step.distance != remaining) {
+                    return null;
+                }
+                Relationship rel = db.getRelationshipById(step.relationship);
+                if (rel.getStartNode().getId() != current.getId()) {
+                    return null;
+                }
+                route.add(rel);
+                current = rel.getEndNode();
+                if (current.hasLabel(unexplored)) {
+                    return remaining == 1 && !excluding.contains(current.getId()) ? route : null;
+                }
+            }
+        } catch (NotFoundException | DeadlockDetectedException e) {
+            hints.remove(current.getId());
+        }
+        return null;
+    }
+
+    /**
+     * Searches for the nearest unexplored room that isn't excluded, no more than the given number of
+     * exits away, and leaves hints along the route to it, unless it had to pass over an excluded
+     * room, which may be nearer.
+     */
+    private List<Relationship> search(Node start, Set<Long> excluding, int maxDistance) {
+        Map<Long, Relationship> reachedBy = new HashMap<>();
+        reachedBy.put(start.getId(), null);
+        boolean passedOver = false;
+        List<Node> level = Collections.singletonList(start);
+        for (int distance = 1; !level.isEmpty() && distance <= maxDistance; distance++) {
+            List<Node> next = new ArrayList<>();
+            for (Node node : level) {
+                for (Relationship rel : node.getRelationships(EXIT, OUTGOING)) {
+                    try {
+                        Node end = rel.getEndNode();
+                        if (reachedBy.containsKey(end.getId())) {
+                            continue;
+                        }
+                        reachedBy.put(end.getId(), rel);
+                        if (!end.hasLabel(unexplored)) {
+                            next.add(end);
+                        } else if (excluding.contains(end.getId())) {
+                            passedOver = true;
+                        } else {
+                            List<Relationship> route = routeTo(end, reachedBy);
+                            if (!passedOver) {
+                                record(route);
+                            }
+                            return route;
+                        }
+                    } catch (NotFoundException ignored) {
+                        // Replaced by another crawler since we listed it
+                    }
+                }
+            }
+            level = next;
+        }
+        return null;
+    }
+
+    private List<Relationship> routeTo(Node end, Map<Long, Relationship> reachedBy) {
+        LinkedList<Relationship> route = new LinkedList<>();
+        for (Relationship rel = reachedBy.get(end.getId()); rel != null; rel = reachedBy.get(rel.getStartNode().getId())) {
+            route.addFirst(rel);
+        }
+        return route;
+    }
+
+    private void record(List<Relationship> route) {
+        int distance = route.size();
+        for (Relationship rel : route) {
+            if (distance <= MAX_DISTANCE) {
+                put(rel.getStartNode().getId(), new Hint(rel.getId(), distance));
+            }
+            distance--;
+        }
+    }
+
+    private Hint put(long nodeId, Hint hint) {
+        if (hints.size() >= maxHints && !hints.containsKey(nodeId)) {
+            hints.clear();
+        }
+        hints.put(nodeId, hint);
+        return hint;
+    }
+
+    private static class Hint {
+        private final long relationship;
+        private final int distance;
+
+        private Hint(long relationship, int distance) {
+            this.relationship = relationship;
+            this.distance = distance;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package net.lazygun.micromuse.partition;
+
+import net.lazygun.micromuse.Link;
+import net.lazygun.micromuse.record.LinkRecordWriter;
+import net.lazygun.micromuse.record.LinkRecords;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Carries links between {@link PartitionWorker}s through a directory they all share. Each worker
+ * appends the links it sends to an outbox file of its own, and reads everyone else's from where it
+ * last left off. Each worker also keeps a status file saying whether it's idle, and how many links
+ * it has sent and seen, which is how the workers agree that the crawl is over. Every crawl needs
+ * a directory of its own.
+ *
+ * @author Ewan
+ */
+public class FileMessageChannel implements Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File directory;
+    private final int workerId;
+    private final int workerCount;
+    private final LinkRecordWriter outbox;
+    private final long[] offsets;
+    private long sent = 0;
+    private long seen = 0;
+    private String lastStatuses;
+
+    public FileMessageChannel(File directory, int workerId, int workerCount) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Couldn't create " + directory);
+        }
+        this.directory = directory;
+        this.workerId = workerId;
+        this.workerCount = workerCount;
+        this.outbox = new LinkRecordWriter(outboxOf(workerId));
+        this.offsets = new long[workerCount];
+        publishStatus(false);
+    }
+
+    public synchronized void send(Link link) throws IOException {
+        outbox.write(link);
+        outbox.flush();
+        sent++;
+    }
+
+    /**
+     * @return every link the other workers have sent since the last call
+     */
+    public synchronized List<Link> receive() throws IOException {
+        List<Link> received = new ArrayList<>();
+        for (int worker = 0; worker < workerCount; worker++) {
+            if (worker == workerId) continue;
+            File file = outboxOf(worker);
+            if (!file.exists()) continue;
+            try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+                long available = in.length() - offsets[worker];
+                if (available <= 0) continue;
+                byte[] bytes = new byte[(int) available];
+                in.seek(offsets[worker]);
+                in.readFully(bytes);
+                // Only take whole lines; the rest may still be being written
+                int end = bytes.length;
+                while (end > 0 && bytes[end - 1] != '\n') end--;
+                if (end == 0) continue;
+                for (String line : new String(bytes, 0, end, UTF8).split("\n")) {
+                    if (!line.isEmpty()) {
+                        received.add(LinkRecords.parse(line));
+                    }
+                }
+                offsets[worker] += end;
+            }
+        }
+        seen += received.size();
+        return received;
+    }
+
+    public synchronized void publishStatus(boolean idle) throws IOException {
+        File status = statusOf(workerId);
+        File temp = new File(directory, status.getName() + ".tmp");
+        Files.write(temp.toPath(), (idle + " " + sent + " " + seen + "\n").getBytes(UTF8));
+        Files.move(temp.toPath(), status.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return true if every worker has said it's idle, every link sent has been seen by every
+     *         other worker, and nothing has changed since the last time this was asked
+     */
+    public synchronized boolean isFinished() throws IOException {
+        String[] statuses = new String[workerCount];
+        long totalSent = 0;
+        boolean allIdle = true;
+        long[][] counts = new long[workerCount][];
+        for (int worker = 0; worker < workerCount; worker++) {
+            File file = statusOf(worker);
+            if (!file.exists()) {
+                lastStatuses = null;
+                return false;
+            }
+            statuses[worker] = new String(Files.readAllBytes(file.toPath()), UTF8).trim();
+            String[] fields = statuses[worker].split(" ");
+            allIdle &= Boolean.parseBoolean(fields[0]);
+            counts[worker] = new long[] {Long.parseLong(fields[1]), Long.parseLong(fields[2])};
+            totalSent += counts[worker][0];
+        }
+        boolean consistent = allIdle;
+        for (int worker = 0; consistent && worker < workerCount; worker++) {
+            consistent = counts[worker][1] == totalSent - counts[worker][0];
+        }
+        String current = Arrays.toString(statuses);
+        boolean finished = consistent && current.equals(lastStatuses);
+        lastStatuses = current;
+        return finished;
+    }
+
+    @Override
+    public void close() throws IOException {
+        outbox.close();
+    }
+
+    private File outboxOf(int worker) {
+        return new File(directory, "worker-" + worker + ".outbox");
+    }
+
+    private File statusOf(int worker) {
+        return new File(directory, "worker-" + worker + ".status");
+    }
+}
@@ -0,0 +1,63 @@
+package net.lazygun.micromuse.partition;
+
+import net.lazygun.micromuse.*;
+import net.lazygun.micromuse.record.LinkRecordReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges the links recorded by {@link PartitionWorker}s into one graph. Rooms found by more than one
+ * worker are matched up by {@link RoomService#findOrCreateAll(List)}, a batch of links' rooms at a
+ * time, and links that have already been merged are skipped, so recordings can be merged in any
+ * order, and more than once.
+ *
+ * @author Ewan
+ */
+public class PartitionMerger {
+
+    public static final int BATCH_SIZE = 1000;
+
+    private final RoomService roomService;
+
+    public PartitionMerger(RoomService roomService) {
+        this.roomService = roomService;
+    }
+
+    /**
+     * @return the number of links added to the graph
+     */
+    public long merge(List<File> recordings) throws IOException, TraversalException {
+        long merged = 0;
+        for (File recording : recordings) {
+            try (LinkRecordReader reader = new LinkRecordReader(recording)) {
+                Link link = reader.read();
+                while (link != null) {
+                    List<Link> batch = new ArrayList<>(BATCH_SIZE);
+                    List<Room> rooms = new ArrayList<>(2 * BATCH_SIZE);
+                    for (; link != null && batch.size() < BATCH_SIZE; link = reader.read()) {
+                        batch.add(link);
+                        rooms.add(link.getFrom());
+                        rooms.add(link.getTo());
+                    }
+                    try (Transaction tx = roomService.beginTransaction()) {
+                        List<Room> found = roomService.findOrCreateAll(rooms);
+                        for (int i = 0; i < batch.size(); i++) {
+                            // Afresh, since an earlier link in the batch may have been from it
+                            Room from = roomService.findById(found.get(2 * i).getId());
+                            String exit = batch.get(i).getExit();
+                            if (from.exit(exit).isUnexplored()) {
+                                from.link(exit, found.get(2 * i + 1));
+                                merged++;
+                            }
+                        }
+                        tx.success();
+                    }
+                }
+            }
+        }
+        return merged;
+    }
+}
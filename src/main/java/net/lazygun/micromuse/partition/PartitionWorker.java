@@ -0,0 +1,200 @@
+package net.lazygun.micromuse.partition;
+
+import net.lazygun.micromuse.*;
+import net.lazygun.micromuse.metrics.CrawlMetrics;
+import net.lazygun.micromuse.neo4j.GraphRoomService;
+import net.lazygun.micromuse.record.LinkRecordWriter;
+import net.lazygun.micromuse.telnet.TelnetSessionFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Crawls one share of a map, as one of several workers that may each be in a process of their own.
+ * <p>
+ * The map is split into partitions by teleport region: every teleportable room seeds a partition,
+ * made up of the rooms that can be reached from it without passing through another teleportable
+ * room. Each partition belongs to one worker, chosen by its seed's location. A worker crawls its own
+ * partitions into its own graph, and stops at the edge of anyone else's: when it links into a
+ * teleportable room it doesn't own, it reserves the unexplored rooms behind it, so its crawlers
+ * never go further, and sends the link to the room's owner over a {@link FileMessageChannel}. The
+ * owner teleports to the room and crawls its partition from there.
+ * <p>
+ * Rooms that can be reached from more than one seed are crawled by more than one worker. Every
+ * worker records every link it makes, and {@link PartitionMerger} merges the recordings back into
+ * one graph.
+ *
+ * @author Ewan
+ */
+public class PartitionWorker implements Callable<Long> {
+
+    public static final long POLL_MILLIS = 100;
+
+    private final int workerId;
+    private final int workerCount;
+    private final int threads;
+    private final RoomService roomService;
+    private final SessionFactory sessionFactory;
+    private final FileMessageChannel channel;
+    private final LinkRecordWriter recording;
+    private final CrawlCoordinator coordinator;
+    private final Set<String> seeded = new HashSet<>();
+
+    /**
+     * @param recording where to record every link this worker makes, for merging afterwards
+     */
+    public PartitionWorker(int workerId, int workerCount, int threads, RoomService roomService,
+                           SessionFactory sessionFactory, FileMessageChannel channel, LinkRecordWriter recording) {
+        this.workerId = workerId;
+        this.workerCount = workerCount;
+        this.threads = threads;
+        this.roomService = roomService;
+        this.sessionFactory = sessionFactory;
+        this.channel = channel;
+        this.recording = recording;
+        this.coordinator = new CrawlCoordinator(new CrawlMetrics(roomService));
+        this.coordinator.addListener(new CrawlListener() {
+            @Override
+            public void linked(Link link) {
+                record(link);
+            }
+        });
+    }
+
+    /**
+     * @return the worker that owns the partition seeded by the teleportable room at the given location
+     */
+    public static int owner(String location, int workerCount) {
+        return (location.hashCode() & Integer.MAX_VALUE) % workerCount;
+    }
+
+    /**
+     * Crawls until every worker has run out of rooms to explore.
+     *
+     * @return the number of links this worker made
+     */
+    @Override
+    public Long call() throws IOException, InterruptedException {
+        long links = 0;
+        try (Session seeder = sessionFactory.createSession()) {
+            try (Transaction tx = roomService.beginTransaction()) {
+                Room start = seeder.getCurrentRoom();
+                if (owns(start)) {
+                    seed(start);
+                } else {
+                    fence(start);
+                }
+                tx.success();
+            }
+            while (true) {
+                links += Crawler.crawl(threads, 0, roomService, sessionFactory, coordinator);
+                recording.flush();
+                channel.publishStatus(true);
+                if (!awaitSeeds(seeder)) {
+                    return links;
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for another worker to send a link into one of our partitions that we haven't crawled
+     * yet, and teleports there.
+     *
+     * @return false if the crawl finished first
+     */
+    private boolean awaitSeeds(Session seeder) throws IOException, InterruptedException {
+        while (true) {
+            boolean seededAny = false;
+            for (Link link : channel.receive()) {
+                Room to = link.getTo();
+                if (owns(to) && !seeded.contains(to.getLocation())) {
+                    if (!seededAny) {
+                        channel.publishStatus(false);
+                        seededAny = true;
+                    }
+                    try (Transaction tx = roomService.beginTransaction()) {
+                        seed(seeder.teleport(to.getLocation()));
+                        tx.success();
+                    }
+                }
+            }
+            if (seededAny) {
+                return true;
+            }
+            channel.publishStatus(true);
+            if (channel.isFinished()) {
+                return false;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    private boolean owns(Room room) {
+        return room.isTeleportable() ? owner(room.getLocation(), workerCount) == workerId : workerId == 0;
+    }
+
+    private void seed(Room room) {
+        if (room.isTeleportable()) {
+            seeded.add(room.getLocation());
+            coordinator.addEntryPoint(room);
+        }
+    }
+
+    /**
+     * Reserves the unexplored rooms behind a room in someone else's partition.
+     */
+    private void fence(Room room) {
+        for (String exit : room.getExits()) {
+            try {
+                Room next = room.exit(exit);
+                if (next.isUnexplored()) {
+                    coordinator.reserve(next.getId());
+                }
+            } catch (TraversalException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Called once the link has been committed, so that nothing is recorded or sent that could
+     * still be rolled back.
+     */
+    private void record(Link link) {
+        try (Transaction tx = roomService.beginTransaction()) {
+            recording.write(link);
+            Room to = link.getTo();
+            if (to.isTeleportable() && !owns(to)) {
+                fence(to);
+                channel.send(link);
+            }
+            tx.success();
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't record " + link, e);
+        }
+    }
+
+    /**
+     * Runs one worker against a real MUSE server:
+     * {@code PartitionWorker <channel dir> <worker id> <worker count> <threads> <db path> <player> <password> [<host> <port>]}.
+     * The worker's recording is written to {@code worker-<id>.links} in the channel directory.
+     */
+    public static void main(String[] args) throws Exception {
+        File directory = new File(args[0]);
+        int workerId = Integer.parseInt(args[1]);
+        int workerCount = Integer.parseInt(args[2]);
+        RoomService roomService = new GraphRoomService(args[4]);
+        SessionFactory sessionFactory = args.length > 8
+                ? new TelnetSessionFactory(roomService, args[7], Integer.parseInt(args[8]), args[5], args[6])
+                : new TelnetSessionFactory(roomService, args[5], args[6]);
+        try (FileMessageChannel channel = new FileMessageChannel(directory, workerId, workerCount);
+             LinkRecordWriter recording = new LinkRecordWriter(new File(directory, "worker-" + workerId + ".links"))) {
+            long links = new PartitionWorker(workerId, workerCount, Integer.parseInt(args[3]), roomService,
+                                             sessionFactory, channel, recording).call();
+            System.out.println("Worker " + workerId + " of " + workerCount + " made " + links + " links.");
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package net.lazygun.micromuse.record;
+
+import net.lazygun.micromuse.Link;
+
+import java.io.*;
+
+/**
+ * Reads links written in the {@link LinkRecords} format one at a time, so that a recording of any
+ * size can be streamed through in constant memory. Blank lines are skipped.
+ *
+ * @author Ewan
+ */
+public class LinkRecordReader implements Closeable {
+
+    private final BufferedReader in;
+    private long lineNumber = 0;
+
+    public LinkRecordReader(Reader in) {
+        this.in = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in);
+    }
+
+    public LinkRecordReader(File file) throws IOException {
+        this(new InputStreamReader(new FileInputStream(file), LinkRecordWriter.UTF8));
+    }
+
+    /**
+     * @return the next link, or null at the end of the recording
+     * @throws IOException if a line can't be read, or isn't a link record
+     */
+    public Link read() throws IOException {
+        String line;
+        do {
+            line = in.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNumber++;
+        } while (line.isEmpty());
+        try {
+            return LinkRecords.parse(line);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad link record on line " + lineNumber, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,50 @@
+package net.lazygun.micromuse.record;
+
+import net.lazygun.micromuse.Link;
+
+import java.io.*;
+import java.nio.charset.Charset;
+
+/**
+ * Writes links out in the {@link LinkRecords} format. Safe to share between threads.
+ *
+ * @author Ewan
+ */
+public class LinkRecordWriter implements Closeable, Flushable {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Writer out;
+    private long written = 0;
+
+    public LinkRecordWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Appends to the given file, creating it if need be.
+     */
+    public LinkRecordWriter(File file) throws IOException {
+        this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8)));
+    }
+
+    public synchronized void write(Link link) throws IOException {
+        out.write(LinkRecords.format(link));
+        out.write('\n');
+        written++;
+    }
+
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
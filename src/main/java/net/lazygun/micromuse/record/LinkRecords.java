@@ -0,0 +1,122 @@
+package net.lazygun.micromuse.record;
+
+import net.lazygun.micromuse.Link;
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.RoomImpl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The text format links are recorded in: one link per line, as nine tab-separated fields.
+ * <pre>
+ * from name, from location, from description, from exits, exit, to name, to location, to description, to exits
+ * </pre>
+ * Each room is recorded in full, so that it can be fingerprinted again when it's read back.
+ * Locations are empty for rooms that can't be teleported to, and exits are separated by commas.
+ * Backslashes, tabs, line breaks and commas inside a field are escaped with a backslash.
+ *
+ * @author Ewan
+ */
+public final class LinkRecords {
+
+    private static final int FIELDS = 9;
+
+    private LinkRecords() {}
+
+    public static String format(Link link) {
+        StringBuilder line = new StringBuilder();
+        appendRoom(line, link.getFrom());
+        line.append('\t');
+        escape(line, link.getExit());
+        line.append('\t');
+        appendRoom(line, link.getTo());
+        return line.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the line isn't a link record
+     */
+    public static Link parse(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != FIELDS) {
+            throw new IllegalArgumentException("Expected " + FIELDS + " fields but found " + fields.length + ": " + line);
+        }
+        return new Link(parseRoom(fields, 0), unescape(fields[4]), parseRoom(fields, 5));
+    }
+
+    private static void appendRoom(StringBuilder line, Room room) {
+        escape(line, room.getName());
+        line.append('\t');
+        escape(line, room.getLocation() == null ? "" : room.getLocation());
+        line.append('\t');
+        escape(line, room.getDescription());
+        line.append('\t');
+        for (Iterator<String> it = room.getExits().iterator(); it.hasNext(); ) {
+            escape(line, it.next());
+            if (it.hasNext()) line.append(',');
+        }
+    }
+
+    private static Room parseRoom(String[] fields, int from) {
+        String location = unescape(fields[from + 1]);
+        return new RoomImpl(unescape(fields[from]), location.isEmpty() ? null : location,
+                            unescape(fields[from + 2]), parseExits(fields[from + 3]));
+    }
+
+    private static List<String> parseExits(String field) {
+        List<String> exits = new ArrayList<>();
+        if (field.isEmpty()) {
+            return exits;
+        }
+        int start = 0;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (c == ',') {
+                exits.add(unescape(field.substring(start, i)));
+                start = i + 1;
+            }
+        }
+        exits.add(unescape(field.substring(start)));
+        return exits;
+    }
+
+    private static void escape(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\': out.append("\\\\"); break;
+                case '\t': out.append("\\t"); break;
+                case '\n': out.append("\\n"); break;
+                case '\r': out.append("\\r"); break;
+                case ',': out.append("\\,"); break;
+                default: out.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder out = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char escaped = value.charAt(++i);
+                switch (escaped) {
+                    case 't': out.append('\t'); break;
+                    case 'n': out.append('\n'); break;
+                    case 'r': out.append('\r'); break;
+                    default: out.append(escaped);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+}
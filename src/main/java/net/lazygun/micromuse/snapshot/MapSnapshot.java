@@ -0,0 +1,398 @@
+package net.lazygun.micromuse.snapshot;
+
+import net.lazygun.micromuse.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * A read-only {@link RoomService} over a map snapshot written by {@link MapSnapshotWriter}.
+ * <p>
+ * The file is memory-mapped rather than read, so opening a snapshot costs a few header reads
+ * however large the map is, and the map itself stays off the heap: rooms are just indexes into the
+ * mapped columns, and their strings are only decoded when asked for. Snapshots are limited to 2GB.
+ * <p>
+ * Rooms can be looked up, walked through and searched for the nearest unexplored room, but not
+ * linked. {@link #findOrCreate(Room)} finds rooms already in the snapshot and refuses to create new
+ * ones, which is all a {@link MapSession} needs to replay a map that's been crawled already.
+ *
+ * @author Ewan
+ */
+public class MapSnapshot implements RoomService, Closeable {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Transaction NO_TRANSACTION = new Transaction() {
+        @Override
+        public void failure() {}
+
+        @Override
+        public void success() {}
+
+        @Override
+        public void close() {}
+    };
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer buffer;
+
+    private final int stringCount;
+    private final int roomCount;
+    private final int exitCount;
+    private final int teleportCount;
+    private final int unexploredCount;
+
+    private final int stringOffsets;
+    private final int stringBytes;
+    private final int nodeIds;
+    private final int names;
+    private final int locations;
+    private final int descriptions;
+    private final int flags;
+    private final int exitOffsets;
+    private final int exitNames;
+    private final int exitTargets;
+    private final int teleports;
+    private final int keys;
+    private final int keyRooms;
+
+    public MapSnapshot(File snapshot) throws IOException {
+        file = new RandomAccessFile(snapshot, "r");
+        try {
+            if (file.length() > Integer.MAX_VALUE) {
+                throw new IOException(snapshot + " is too large to map");
+            }
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.getInt(0) != MapSnapshotWriter.MAGIC) {
+                throw new IOException(snapshot + " isn't a map snapshot");
+            }
+            if (buffer.getInt(4) != MapSnapshotWriter.VERSION) {
+                throw new IOException(snapshot + " is snapshot version " + buffer.getInt(4) +
+                                      ", expected " + MapSnapshotWriter.VERSION);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        stringCount = buffer.getInt(8);
+        roomCount = buffer.getInt(12);
+        exitCount = buffer.getInt(16);
+        teleportCount = buffer.getInt(20);
+        unexploredCount = buffer.getInt(24);
+        int textLength = (int) buffer.getLong(28);
+
+        stringOffsets = MapSnapshotWriter.HEADER_SIZE;
+        stringBytes = stringOffsets + 4 * (stringCount + 1);
+        nodeIds = stringBytes + textLength;
+        names = nodeIds + 8 * roomCount;
+        locations = names + 4 * roomCount;
+        descriptions = locations + 4 * roomCount;
+        flags = descriptions + 4 * roomCount;
+        exitOffsets = flags + roomCount;
+        exitNames = exitOffsets + 4 * (roomCount + 1);
+        exitTargets = exitNames + 4 * exitCount;
+        teleports = exitTargets + 4 * exitCount;
+        keys = teleports + 4 * teleportCount;
+        keyRooms = keys + 8 * (roomCount - unexploredCount);
+    }
+
+    public int getRoomCount() {
+        return roomCount;
+    }
+
+    public int getExitCount() {
+        return exitCount;
+    }
+
+    /**
+     * @return the room at the given index, from 0 to {@link #getRoomCount()} - 1
+     */
+    public SnapshotRoom room(int index) {
+        if (index < 0 || index >= roomCount) {
+            throw new IndexOutOfBoundsException("No room " + index + " in a snapshot of " + roomCount);
+        }
+        return new SnapshotRoom(this, index);
+    }
+
+    /**
+     * @return the room that had the given node id when the snapshot was taken, or null
+     */
+    @Override
+    public SnapshotRoom findById(long id) {
+        int low = 0;
+        int high = roomCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = nodeId(mid);
+            if (midId < id) low = mid + 1;
+            else if (midId > id) high = mid - 1;
+            else return new SnapshotRoom(this, mid);
+        }
+        return null;
+    }
+
+    /**
+     * @return the teleportable room at the given location, or null
+     */
+    public SnapshotRoom findByLocation(String location) {
+        int locationId = stringId(location);
+        if (locationId < 0) {
+            return null;
+        }
+        int low = 0;
+        int high = teleportCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int room = buffer.getInt(teleports + 4 * mid);
+            int midLocation = buffer.getInt(locations + 4 * room);
+            if (midLocation < locationId) low = mid + 1;
+            else if (midLocation > locationId) high = mid - 1;
+            else return new SnapshotRoom(this, room);
+        }
+        return null;
+    }
+
+    /**
+     * @return the explored room with the same name, location and exits as the example, or null
+     */
+    public SnapshotRoom findByExample(Room example) {
+        int name = stringId(example.getName());
+        int location = example.getLocation() == null ? -1 : stringId(example.getLocation());
+        if (name < 0 || location < 0 && example.getLocation() != null) {
+            return null;
+        }
+        int[] exits = new int[example.getExits().size()];
+        int count = 0;
+        for (String exit : example.getExits()) {
+            if ((exits[count++] = stringId(exit)) < 0) {
+                return null;
+            }
+        }
+        Arrays.sort(exits);
+        long key = key(name, location, exits, count);
+
+        int low = 0;
+        int high = roomCount - unexploredCount - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(keys + 8 * mid) < key) low = mid + 1;
+            else high = mid;
+        }
+        for (int i = low; i < roomCount - unexploredCount && buffer.getLong(keys + 8 * i) == key; i++) {
+            int room = buffer.getInt(keyRooms + 4 * i);
+            if (matches(room, name, location, exits)) {
+                return new SnapshotRoom(this, room);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Room findOrCreate(Room room) {
+        SnapshotRoom found = findByExample(room);
+        if (found == null) {
+            throw new UnsupportedOperationException("Snapshots are read-only, and don't have " + room);
+        }
+        return found;
+    }
+
+    @Override
+    public List<Room> findOrCreateAll(List<? extends Room> rooms) {
+        List<Room> found = new ArrayList<>(rooms.size());
+        for (Room room : rooms) {
+            found.add(findOrCreate(room));
+        }
+        return found;
+    }
+
+    @Override
+    public RoomBuilder builder() {
+        return new SnapshotRoomBuilder(this);
+    }
+
+    @Override
+    public long countUnexplored() {
+        return unexploredCount;
+    }
+
+    @Override
+    public RouteFinder routeFinder() {
+        return RouteFinder.NEAREST;
+    }
+
+    /**
+     * Snapshots don't change, so their transactions do nothing.
+     */
+    @Override
+    public Transaction beginTransaction() {
+        return NO_TRANSACTION;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    static long key(int name, int location, int[] exits, int count) {
+        long key = 0xcbf29ce484222325L;
+        key = (key ^ name) * 0x100000001b3L;
+        key = (key ^ location) * 0x100000001b3L;
+        for (int i = 0; i < count; i++) {
+            key = (key ^ exits[i]) * 0x100000001b3L;
+        }
+        return key;
+    }
+
+    private boolean matches(int room, int name, int location, int[] exits) {
+        if (nameId(room) != name || locationId(room) != location) {
+            return false;
+        }
+        int first = firstExit(room);
+        if (firstExit(room + 1) - first != exits.length) {
+            return false;
+        }
+        for (int i = 0; i < exits.length; i++) {
+            if (exitNameId(first + i) != exits[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the id of the given string, or -1 if it isn't in the snapshot
+     */
+    int stringId(String string) {
+        int low = 0;
+        int high = stringCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compared = string(mid).compareTo(string);
+            if (compared < 0) low = mid + 1;
+            else if (compared > 0) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    String string(int id) {
+        int start = buffer.getInt(stringOffsets + 4 * id);
+        int end = buffer.getInt(stringOffsets + 4 * (id + 1));
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(stringBytes + start + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    long nodeId(int room) {
+        return buffer.getLong(nodeIds + 8 * room);
+    }
+
+    int nameId(int room) {
+        return buffer.getInt(names + 4 * room);
+    }
+
+    int locationId(int room) {
+        return buffer.getInt(locations + 4 * room);
+    }
+
+    int descriptionId(int room) {
+        return buffer.getInt(descriptions + 4 * room);
+    }
+
+    boolean hasFlag(int room, byte flag) {
+        return (buffer.get(flags + room) & flag) != 0;
+    }
+
+    int firstExit(int room) {
+        return buffer.getInt(exitOffsets + 4 * room);
+    }
+
+    int exitNameId(int exit) {
+        return buffer.getInt(exitNames + 4 * exit);
+    }
+
+    int exitTarget(int exit) {
+        return buffer.getInt(exitTargets + 4 * exit);
+    }
+
+    /**
+     * @return the index of the given room's exit with the given name id, or -1 if it has none
+     */
+    int findExit(int room, int name) {
+        int low = firstExit(room);
+        int high = firstExit(room + 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midName = exitNameId(mid);
+            if (midName < name) low = mid + 1;
+            else if (midName > name) high = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Breadth-first search over the exit columns, from the given room to the nearest unexplored
+     * room whose node id isn't excluded.
+     *
+     * @return the exit indexes along the route, or null if there's no such room
+     */
+    int[] searchUnexplored(int start, Set<Long> excluding) {
+        int[] reachedBy = new int[roomCount];
+        Arrays.fill(reachedBy, -2);
+        reachedBy[start] = -1;
+        int[] queue = new int[roomCount];
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int room = queue[head++];
+            for (int exit = firstExit(room), end = firstExit(room + 1); exit < end; exit++) {
+                int target = exitTarget(exit);
+                if (reachedBy[target] != -2) {
+                    continue;
+                }
+                reachedBy[target] = exit;
+                if (!hasFlag(target, MapSnapshotWriter.UNEXPLORED)) {
+                    queue[tail++] = target;
+                } else if (excluding.isEmpty() || !excluding.contains(nodeId(target))) {
+                    return routeTo(target, reachedBy);
+                }
+            }
+        }
+        return null;
+    }
+
+    private int[] routeTo(int target, int[] reachedBy) {
+        int length = 0;
+        for (int room = target; reachedBy[room] >= 0; room = exitSource(reachedBy[room])) {
+            length++;
+        }
+        int[] route = new int[length];
+        for (int room = target; reachedBy[room] >= 0; room = exitSource(reachedBy[room])) {
+            route[--length] = reachedBy[room];
+        }
+        return route;
+    }
+
+    /**
+     * @return the room the given exit leads out of, found by binary search of the exit offsets
+     */
+    int exitSource(int exit) {
+        int low = 0;
+        int high = roomCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstExit(mid) <= exit) low = mid;
+            else high = mid - 1;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,200 @@
+package net.lazygun.micromuse.snapshot;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+/**
+ * Collects a map's rooms and exits and writes them out as a {@link MapSnapshot} file.
+ * <p>
+ * The file is laid out in columns rather than records, so a reader can map it and find any room's
+ * fields with a little arithmetic:
+ * <pre>
+ * header       magic, version, string/room/exit/teleport/unexplored counts, string bytes length
+ * strings      int[strings + 1] offsets into the UTF-8 bytes that follow, in sorted string order
+ * rooms        long[rooms] node ids (ascending), int[rooms] name, location (-1 for none) and
+ *              description string ids, byte[rooms] flags
+ * exits        int[rooms + 1] offsets into the exit columns (CSR), int[exits] exit name string
+ *              ids (ascending within a room), int[exits] target room indexes
+ * teleports    int[teleports] teleportable room indexes, ordered by location
+ * keys         long[rooms - unexplored] room keys (ascending), int[rooms - unexplored] room indexes
+ * </pre>
+ * Every string is written once, and strings are numbered in sorted order, so comparing ids is the
+ * same as comparing strings. A room's key is a hash of its name, location and exit ids, which is
+ * enough to find an explored room by example without any other index.
+ *
+ * @author Ewan
+ */
+public class MapSnapshotWriter {
+
+    static final int MAGIC = 0x4D4D5331;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 * 7 + 8;
+
+    static final byte TELEPORTABLE = 1;
+    static final byte UNEXPLORED = 2;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<Long, RoomEntry> rooms = new TreeMap<>();
+    private final SortedSet<String> strings = new TreeSet<>();
+    private int exitCount = 0;
+
+    /**
+     * Adds a room. Exits are added separately, once both rooms they join have been added.
+     *
+     * @param location the room's location, or null if it can't be teleported to
+     */
+    public void addRoom(long id, String name, String location, String description, boolean unexplored) {
+        if (rooms.containsKey(id)) {
+            throw new IllegalArgumentException("Room " + id + " has already been added");
+        }
+        rooms.put(id, new RoomEntry(id, name, location, description == null ? "" : description, unexplored));
+        strings.add(name);
+        strings.add(description == null ? "" : description);
+        if (location != null) {
+            strings.add(location);
+        }
+    }
+
+    public void addExit(long from, String exit, long to) {
+        RoomEntry fromRoom = rooms.get(from);
+        if (fromRoom == null || !rooms.containsKey(to)) {
+            throw new IllegalArgumentException("Both ends of exit '" + exit + "' must be added first");
+        }
+        fromRoom.exits.put(exit, to);
+        strings.add(exit);
+        exitCount++;
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    public int getExitCount() {
+        return exitCount;
+    }
+
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            write(out);
+        }
+    }
+
+    private void write(DataOutputStream out) throws IOException {
+        String[] stringTable = strings.toArray(new String[strings.size()]);
+        Map<String, Integer> stringIds = new HashMap<>(stringTable.length * 2);
+        byte[][] encoded = new byte[stringTable.length][];
+        long stringBytes = 0;
+        for (int i = 0; i < stringTable.length; i++) {
+            stringIds.put(stringTable[i], i);
+            encoded[i] = stringTable[i].getBytes(UTF8);
+            stringBytes += encoded[i].length;
+        }
+        if (stringBytes > Integer.MAX_VALUE) {
+            throw new IOException("Too much text for one snapshot: " + stringBytes + " bytes");
+        }
+
+        Map<Long, Integer> indexes = new HashMap<>(rooms.size() * 2);
+        List<RoomEntry> entries = new ArrayList<>(rooms.values());
+        List<Integer> teleports = new ArrayList<>();
+        int unexplored = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            RoomEntry entry = entries.get(i);
+            indexes.put(entry.id, i);
+            if (entry.location != null) teleports.add(i);
+            if (entry.unexplored) unexplored++;
+        }
+
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(stringTable.length);
+        out.writeInt(entries.size());
+        out.writeInt(exitCount);
+        out.writeInt(teleports.size());
+        out.writeInt(unexplored);
+        out.writeLong(stringBytes);
+
+        int offset = 0;
+        for (byte[] bytes : encoded) {
+            out.writeInt(offset);
+            offset += bytes.length;
+        }
+        out.writeInt(offset);
+        for (byte[] bytes : encoded) {
+            out.write(bytes);
+        }
+
+        for (RoomEntry entry : entries) out.writeLong(entry.id);
+        for (RoomEntry entry : entries) out.writeInt(stringIds.get(entry.name));
+        for (RoomEntry entry : entries) out.writeInt(entry.location == null ? -1 : stringIds.get(entry.location));
+        for (RoomEntry entry : entries) out.writeInt(stringIds.get(entry.description));
+        for (RoomEntry entry : entries) {
+            out.writeByte((entry.location != null ? TELEPORTABLE : 0) | (entry.unexplored ? UNEXPLORED : 0));
+        }
+
+        // Exits are kept in a TreeMap by name, so string id order is already name order
+        offset = 0;
+        for (RoomEntry entry : entries) {
+            out.writeInt(offset);
+            offset += entry.exits.size();
+        }
+        out.writeInt(offset);
+        for (RoomEntry entry : entries) {
+            for (String exit : entry.exits.keySet()) out.writeInt(stringIds.get(exit));
+        }
+        for (RoomEntry entry : entries) {
+            for (Long to : entry.exits.values()) out.writeInt(indexes.get(to));
+        }
+
+        final Map<Integer, Integer> locations = new HashMap<>();
+        for (Integer room : teleports) {
+            locations.put(room, stringIds.get(entries.get(room).location));
+        }
+        Collections.sort(teleports, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Integer.compare(locations.get(a), locations.get(b));
+            }
+        });
+        for (Integer room : teleports) out.writeInt(room);
+
+        long[][] keys = new long[entries.size() - unexplored][];
+        int k = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            RoomEntry entry = entries.get(i);
+            if (!entry.unexplored) {
+                int[] exitIds = new int[entry.exits.size()];
+                int e = 0;
+                for (String exit : entry.exits.keySet()) exitIds[e++] = stringIds.get(exit);
+                int location = entry.location == null ? -1 : stringIds.get(entry.location);
+                keys[k++] = new long[] {MapSnapshot.key(stringIds.get(entry.name), location, exitIds, exitIds.length), i};
+            }
+        }
+        Arrays.sort(keys, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return Long.compare(a[0], b[0]);
+            }
+        });
+        for (long[] key : keys) out.writeLong(key[0]);
+        for (long[] key : keys) out.writeInt((int) key[1]);
+    }
+
+    private static class RoomEntry {
+        private final long id;
+        private final String name;
+        private final String location;
+        private final String description;
+        private final boolean unexplored;
+        private final SortedMap<String, Long> exits = new TreeMap<>();
+
+        private RoomEntry(long id, String name, String location, String description, boolean unexplored) {
+            this.id = id;
+            this.name = name;
+            this.location = location;
+            this.description = description;
+            this.unexplored = unexplored;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package net.lazygun.micromuse.snapshot;
+
+import net.lazygun.micromuse.Link;
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.Route;
+import net.lazygun.micromuse.TraversalException;
+
+import java.util.*;
+
+/**
+ * A room in a {@link MapSnapshot}: an index into the snapshot's columns, read on demand. Its id is
+ * the node id the room had in the graph the snapshot was taken from.
+ *
+ * @author Ewan
+ */
+public class SnapshotRoom implements Room {
+
+    private final MapSnapshot snapshot;
+    private final int index;
+
+    SnapshotRoom(MapSnapshot snapshot, int index) {
+        this.snapshot = snapshot;
+        this.index = index;
+    }
+
+    /**
+     * @return this room's position in the snapshot
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public long getId() {
+        return snapshot.nodeId(index);
+    }
+
+    @Override
+    public String getName() {
+        return snapshot.string(snapshot.nameId(index));
+    }
+
+    @Override
+    public String getLocation() {
+        int location = snapshot.locationId(index);
+        return location < 0 ? null : snapshot.string(location);
+    }
+
+    @Override
+    public String getDescription() {
+        return snapshot.string(snapshot.descriptionId(index));
+    }
+
+    @Override
+    public List<String> getExits() {
+        int first = snapshot.firstExit(index);
+        int end = snapshot.firstExit(index + 1);
+        List<String> exits = new ArrayList<>(end - first);
+        for (int exit = first; exit < end; exit++) {
+            exits.add(snapshot.string(snapshot.exitNameId(exit)));
+        }
+        return Collections.unmodifiableList(exits);
+    }
+
+    @Override
+    public boolean isTeleportable() {
+        return snapshot.hasFlag(index, MapSnapshotWriter.TELEPORTABLE);
+    }
+
+    @Override
+    public boolean isUnexplored() {
+        return snapshot.hasFlag(index, MapSnapshotWriter.UNEXPLORED);
+    }
+
+    @Override
+    public Link link(String exit, Room to) {
+        throw new UnsupportedOperationException("Snapshots are read-only");
+    }
+
+    @Override
+    public Route findNearestUnexplored() {
+        return findNearestUnexplored(Collections.<Long>emptySet());
+    }
+
+    @Override
+    public Route findNearestUnexplored(Set<Long> excluding) {
+        int[] exits = snapshot.searchUnexplored(index, excluding);
+        if (exits == null) {
+            return null;
+        }
+        List<Link> links = new ArrayList<>(exits.length);
+        SnapshotRoom from = this;
+        for (int exit : exits) {
+            SnapshotRoom to = new SnapshotRoom(snapshot, snapshot.exitTarget(exit));
+            links.add(new Link(from, snapshot.string(snapshot.exitNameId(exit)), to));
+            from = to;
+        }
+        return new Route(links);
+    }
+
+    @Override
+    public SnapshotRoom exit(String exit) throws TraversalException {
+        int name = snapshot.stringId(exit);
+        int found = name < 0 ? -1 : snapshot.findExit(index, name);
+        if (found < 0) {
+            throw new IllegalArgumentException("Room has no exit name '" + exit + "'");
+        }
+        return new SnapshotRoom(snapshot, snapshot.exitTarget(found));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        SnapshotRoom room = (SnapshotRoom) o;
+
+        return snapshot == room.snapshot && index == room.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return index;
+    }
+
+    @Override
+    public String toString() {
+        return "SnapshotRoom{name=" + getName() + ",location=" + getLocation() + ",exits=" + getExits() +
+               ",index=" + index + "}";
+    }
+}
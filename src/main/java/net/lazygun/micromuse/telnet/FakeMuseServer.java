@@ -0,0 +1,153 @@
+package net.lazygun.micromuse.telnet;
+
+import net.lazygun.micromuse.Link;
+import net.lazygun.micromuse.MapIndex;
+import net.lazygun.micromuse.Room;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A stand-in MUSE server that replays a map given as a list of links, for exercising
+ * {@link TelnetSession} without a network. It understands just enough of the MUSE command set for a
+ * crawler: connect, OUTPUTPREFIX, OUTPUTSUFFIX, look, @tel, QUIT and exit names. Every connection
+ * starts in the first room of the first link.
+ *
+ * @author Ewan
+ */
+public class FakeMuseServer implements Closeable {
+
+    private static final Logger log = Logger.getLogger(FakeMuseServer.class.getName());
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final MapIndex map;
+    private final Map<Room, String> dbrefs = new IdentityHashMap<>();
+    private final ServerSocket serverSocket;
+
+    public FakeMuseServer(List<Link> links) throws IOException {
+        this(new MapIndex(links));
+    }
+
+    public FakeMuseServer(MapIndex map) throws IOException {
+        this.map = map;
+        for (Room room : map.getRooms()) {
+            dbrefs.put(room, room.isTeleportable() ? room.getLocation() : "#" + (100000 + dbrefs.size()));
+        }
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "FakeMuseServer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getHost() {
+        return serverSocket.getInetAddress().getHostAddress();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                Thread connection = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                }, "FakeMuseServer-" + socket.getPort());
+                connection.setDaemon(true);
+                connection.start();
+            } catch (SocketException closed) {
+                return;
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Couldn't accept a connection", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), UTF8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), UTF8), true)) {
+            Room current = map.getFirstRoom();
+            String prefix = null;
+            String suffix = null;
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                String reply;
+                if (line.startsWith("connect ")) {
+                    out.println("Welcome to the fake MUSE.");
+                    continue;
+                } else if (line.startsWith("OUTPUTPREFIX ")) {
+                    prefix = line.substring("OUTPUTPREFIX ".length());
+                    continue;
+                } else if (line.startsWith("OUTPUTSUFFIX ")) {
+                    suffix = line.substring("OUTPUTSUFFIX ".length());
+                    continue;
+                } else if (line.equals("QUIT")) {
+                    return;
+                } else if (line.equals("look")) {
+                    reply = describe(current);
+                } else if (line.startsWith("@tel ")) {
+                    Room target = map.teleport(line.substring("@tel ".length()).trim());
+                    if (target == null) {
+                        reply = "Bad destination.";
+                    } else {
+                        current = target;
+                        reply = describe(current);
+                    }
+                } else {
+                    Room next = map.exit(current, line);
+                    if (next == null) {
+                        reply = "You can't go that way.";
+                    } else {
+                        current = next;
+                        reply = describe(current);
+                    }
+                }
+                if (prefix != null) out.println(prefix);
+                out.println(reply);
+                if (suffix != null) out.println(suffix);
+            }
+        } catch (IOException ignored) {
+            // The client hung up
+        }
+    }
+
+    private String describe(Room room) {
+        StringBuilder text = new StringBuilder(room.getName())
+                .append('(').append(dbrefs.get(room)).append('R')
+                .append(room.isTeleportable() ? "J" : "").append(')');
+        if (!room.getDescription().isEmpty()) {
+            text.append('\n').append(room.getDescription());
+        }
+        if (!room.getExits().isEmpty()) {
+            text.append('\n').append(RoomParser.EXITS_HEADER).append('\n');
+            for (Iterator<String> it = room.getExits().iterator(); it.hasNext(); ) {
+                text.append(it.next()).append(it.hasNext() ? "  " : "");
+            }
+        }
+        return text.toString();
+    }
+}
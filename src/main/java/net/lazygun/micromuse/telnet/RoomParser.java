@@ -0,0 +1,66 @@
+package net.lazygun.micromuse.telnet;
+
+import net.lazygun.micromuse.Room;
+import net.lazygun.micromuse.RoomImpl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a room from the text the MUSE prints when you look at it, or walk or teleport into it:
+ * <pre>
+ * Town Square(#12RJ)
+ * A busy square, with an inn to the north.
+ * Obvious exits:
+ * North  Inn  South Gate
+ * </pre>
+ * The header line holds the room's name, dbref and flags. Rooms flagged JUMP_OK (J) can be
+ * teleported to, so their dbref is used as their location. Exit names are separated by at least
+ * two spaces.
+ *
+ * @author Ewan
+ */
+public class RoomParser {
+
+    static final String EXITS_HEADER = "Obvious exits:";
+
+    private static final Pattern HEADER = Pattern.compile("^(.+)\\((#\\d+)R([A-Za-z]*)\\)$");
+    private static final Pattern EXIT_SEPARATOR = Pattern.compile("\\s{2,}");
+
+    /**
+     * @return the room described by the given output, or null if the output doesn't describe a
+     *         room (e.g. "You can't go that way.")
+     */
+    public Room parse(String output) {
+        String[] lines = output.trim().split("\\r?\\n");
+        Matcher header = HEADER.matcher(lines[0].trim());
+        if (!header.matches()) {
+            return null;
+        }
+        String name = header.group(1).trim();
+        String location = header.group(3).contains("J") ? header.group(2) : null;
+
+        StringBuilder description = new StringBuilder();
+        List<String> exits = new ArrayList<>();
+        boolean inExits = false;
+        for (int i = 1; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (inExits) {
+                if (!line.isEmpty()) {
+                    exits.addAll(Arrays.asList(EXIT_SEPARATOR.split(line)));
+                }
+            } else if (line.equals(EXITS_HEADER)) {
+                inExits = true;
+            } else {
+                if (description.length() > 0) {
+                    description.append('\n');
+                }
+                description.append(line);
+            }
+        }
+        return new RoomImpl(name, location, description.toString(), exits);
+    }
+}
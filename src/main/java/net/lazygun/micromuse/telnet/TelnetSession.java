@@ -0,0 +1,155 @@
+package net.lazygun.micromuse.telnet;
+
+import net.lazygun.micromuse.*;
+import net.sf.expectit.Expect;
+import net.sf.expectit.ExpectBuilder;
+import net.sf.expectit.Result;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static net.sf.expectit.matcher.Matchers.regexp;
+
+/**
+ * A {@link Session} on a real MUSE server, over telnet.
+ * <p>
+ * On connecting, the session asks the server to wrap the output of every command in a pair of
+ * markers (OUTPUTPREFIX/OUTPUTSUFFIX), so that replies can be matched up with commands without
+ * waiting for each one in turn. That lets {@link #exit(List)} send a whole route's worth of exits
+ * in one go, and read back the rooms it passed through afterwards.
+ *
+ * @author Ewan
+ */
+public class TelnetSession implements Session {
+
+    static final String PREFIX = "<<<MICROMUSE>>>";
+    static final String SUFFIX = "<<</MICROMUSE>>>";
+
+    private static final Pattern REPLY = Pattern.compile(
+            "(?s)" + Pattern.quote(PREFIX) + "\\r?\\n(.*?)" + Pattern.quote(SUFFIX));
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final RoomService roomService;
+    private final RoomParser parser = new RoomParser();
+    private final Socket socket;
+    private final Expect expect;
+
+    private Room currentRoom;
+
+    public TelnetSession(RoomService roomService, String host, int port, String player, String password) throws IOException {
+        this.roomService = roomService;
+        this.socket = new Socket(host, port);
+        this.expect = new ExpectBuilder()
+                .withInputs(socket.getInputStream())
+                .withOutput(socket.getOutputStream())
+                .withTimeout(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .build();
+        expect.sendLine("connect " + player + " " + password);
+        expect.sendLine("OUTPUTPREFIX " + PREFIX);
+        expect.sendLine("OUTPUTSUFFIX " + SUFFIX);
+        look();
+    }
+
+    @Override
+    public Room getCurrentRoom() {
+        return currentRoom;
+    }
+
+    @Override
+    public Room look() {
+        Room room = parser.parse(command("look"));
+        if (room == null) {
+            throw new IllegalStateException("Couldn't make out the room we're in");
+        }
+        try (Transaction tx = roomService.beginTransaction()) {
+            currentRoom = roomService.findOrCreate(room);
+            tx.success();
+        }
+        return currentRoom;
+    }
+
+    @Override
+    public Room teleport(String location) {
+        Room room = parser.parse(command("@tel " + location));
+        if (room == null) {
+            throw new IllegalArgumentException("Couldn't teleport to location '" + location + "'");
+        }
+        try (Transaction tx = roomService.beginTransaction()) {
+            currentRoom = roomService.findOrCreate(room);
+            tx.success();
+        }
+        return currentRoom;
+    }
+
+    @Override
+    public Room exit(String exit) throws TraversalException {
+        return exit(Collections.singletonList(exit)).get(0);
+    }
+
+    @Override
+    public List<Room> exit(List<String> exits) throws TraversalException {
+        return exit(exits, ExpectedRooms.NONE);
+    }
+
+    @Override
+    public List<Room> exit(List<String> exits, ExpectedRooms expected) throws TraversalException {
+        List<String> replies = commands(exits);
+        List<Room> entered = new ArrayList<>(exits.size());
+        for (int i = 0; i < replies.size(); i++) {
+            Room room = parser.parse(replies.get(i));
+            if (room == null) {
+                look();
+                throw new TraversalException("Couldn't go through exit '" + exits.get(i) + "': " + replies.get(i).trim());
+            }
+            Room match = expected.match(i, room);
+            try {
+                entered.add(match != null ? match : roomService.findOrCreate(room));
+            } catch (Exception e) {
+                throw new TraversalException(e);
+            }
+        }
+        currentRoom = entered.get(entered.size() - 1);
+        return entered;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            expect.sendLine("QUIT");
+            expect.close();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private String command(String command) {
+        return commands(Collections.singletonList(command)).get(0);
+    }
+
+    /**
+     * Sends all the given commands before reading any replies, so a batch costs one round trip.
+     */
+    private List<String> commands(List<String> commands) {
+        try {
+            for (String command : commands) {
+                expect.sendLine(command);
+            }
+            List<String> replies = new ArrayList<>(commands.size());
+            for (String command : commands) {
+                Result reply = expect.expect(regexp(REPLY));
+                if (!reply.isSuccessful()) {
+                    throw new IllegalStateException("No reply to '" + command + "' within " + TIMEOUT_SECONDS + "s");
+                }
+                replies.add(reply.group(1));
+            }
+            return replies;
+        } catch (IOException e) {
+            throw new IllegalStateException("Lost connection to MUSE", e);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package net.lazygun.micromuse.telnet;
+
+import net.lazygun.micromuse.RoomService;
+import net.lazygun.micromuse.Session;
+import net.lazygun.micromuse.SessionFactory;
+
+import java.io.IOException;
+
+/**
+ *
+ * @author Ewan
+ */
+public class TelnetSessionFactory implements SessionFactory {
+
+    private final RoomService roomService;
+    private final String host;
+    private final int port;
+    private final String player;
+    private final String password;
+
+    public TelnetSessionFactory(RoomService roomService, String player, String password) {
+        this(roomService, Session.HOST, Session.PORT, player, password);
+    }
+
+    public TelnetSessionFactory(RoomService roomService, String host, int port, String player, String password) {
+        this.roomService = roomService;
+        this.host = host;
+        this.port = port;
+        this.player = player;
+        this.password = password;
+    }
+
+    @Override
+    public Session createSession() {
+        try {
+            return new TelnetSession(roomService, host, port, player, password);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't connect to " + host + ":" + port, e);
+        }
+    }
+}
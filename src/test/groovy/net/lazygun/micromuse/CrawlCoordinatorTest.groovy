@@ -0,0 +1,116 @@
+package net.lazygun.micromuse
+
+import net.lazygun.micromuse.metrics.CrawlMetrics
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+
+import static java.util.concurrent.TimeUnit.SECONDS
+
+/**
+ * @author Ewan
+ */
+class CrawlCoordinatorTest extends Specification {
+
+  Room hall = new RoomImpl('Hall', '#1', '', ['north', 'south'])
+  Room north = new RoomImpl('UNEXPLORED', null, '')
+  Room south = new RoomImpl('UNEXPLORED', null, '')
+
+  def "two crawlers claiming at once never get the same room"() {
+    given: 'a finder that lets both crawlers search before either claims what it found'
+      def barrier = new CyclicBarrier(2)
+      def searches = new AtomicInteger()
+      def coordinator = new CrawlCoordinator(new CrawlMetrics(), finder { if (searches.incrementAndGet() <= 2) barrier.await(10, SECONDS) })
+
+    when:
+      def executor = Executors.newFixedThreadPool(2)
+      def claim = { coordinator.claim(hall) } as Callable
+      def claims = executor.invokeAll([claim, claim]).collect { it.get(10, SECONDS) }
+      executor.shutdown()
+
+    then: 'both found the north room, and the one that lost the race went south'
+      claims*.last()*.exit as Set == ['north', 'south'] as Set
+      coordinator.collisionCount == 1
+      coordinator.claimCount == 2
+  }
+
+  def "a released claim can be claimed again straight away"() {
+    given:
+      def coordinator = new CrawlCoordinator(new CrawlMetrics(), finder())
+      def first = coordinator.claim(hall)
+
+    when:
+      coordinator.release(first)
+
+    then:
+      !coordinator.isClaimed(north.id)
+      coordinator.claim(hall).last().exit == 'north'
+  }
+
+  def "a lease that isn't released lapses, and its room can be claimed again"() {
+    given: 'a coordinator whose leases last 100ms, and a claim on each room'
+      def coordinator = new CrawlCoordinator(100, new CrawlMetrics(), finder())
+      def claimed = [coordinator.claim(hall), coordinator.claim(hall)]*.last()*.exit
+      def start = System.currentTimeMillis()
+
+    when: 'we claim again without releasing either'
+      def again = coordinator.claim(hall)
+
+    then: 'we wait for a lease to lapse, then get its room'
+      claimed == ['north', 'south']
+      again.last().exit == 'north'
+      System.currentTimeMillis() - start >= 100
+  }
+
+  def "reserved rooms are never handed out, and a crawl with nothing left to claim ends"() {
+    given:
+      def coordinator = new CrawlCoordinator(new CrawlMetrics(), finder())
+      coordinator.reserve(north.id)
+
+    when:
+      def first = coordinator.claim(hall)
+      coordinator.release(first)
+      coordinator.reserve(south.id)
+
+    then:
+      first.last().exit == 'south'
+      coordinator.claim(hall) == null
+      coordinator.claimCount == 0
+  }
+
+  def "crawlers with nothing near them share the search from an entry point"() {
+    given: 'an entry point with nothing left near it, and two crawlers in dead ends'
+      def searches = []
+      def entry = new RoomImpl('Entry', '#0', '', ['out'])
+      def coordinator = new CrawlCoordinator(new CrawlMetrics(), [findNearestUnexplored: { Room from, Set<Long> excluding ->
+        searches << from.name
+        null
+      }, find: { Room from, Room to -> null }, isPlanned: { false }] as RouteFinder)
+      coordinator.addEntryPoint(entry)
+
+    when: 'each of them claims'
+      def claims = ['Cellar', 'Attic'].collect { coordinator.claim(new RoomImpl(it, null, '', [])) }
+
+    then: 'the entry point is only searched from once'
+      claims == [null, null]
+      searches == ['Cellar', 'Entry', 'Attic']
+      coordinator.metrics.routeCacheHits == 1
+  }
+
+  /**
+   * @return a finder that leads from the hall to the first of its unexplored rooms that isn't
+   *         excluded, running the given closure before it returns
+   */
+  private RouteFinder finder(Closure searching = {}) {
+    [findNearestUnexplored: { Room from, Set<Long> excluding ->
+      def target = [north, south].find { !excluding.contains(it.id) }
+      searching()
+      target == null ? null : new Route([new Link(hall, target.is(north) ? 'north' : 'south', target)])
+    },
+     find                 : { Room from, Room to -> null },
+     isPlanned            : { false }] as RouteFinder
+  }
+}
@@ -1,6 +1,12 @@
 package net.lazygun.micromuse
 
+import net.lazygun.micromuse.memory.MemoryRoomService
+import net.lazygun.micromuse.metrics.CrawlMetrics
+import net.lazygun.micromuse.metrics.MeteredRoomService
+import net.lazygun.micromuse.metrics.Operation
+import net.lazygun.micromuse.neo4j.GraphLayout
 import net.lazygun.micromuse.neo4j.GraphRoomService
+import net.lazygun.micromuse.neo4j.RoomCache
 import net.lazygun.micromuse.neo4j.RoomNode
 import org.neo4j.graphdb.GraphDatabaseService
 import org.neo4j.test.TestGraphDatabaseFactory
@@ -41,13 +47,14 @@ class CrawlerTest extends Specification {
     }
   }
 
-  def "map can be crawled"(int crawlers) {
+  def "map can be crawled"(GraphLayout layout, int crawlers) {
     given:
-      def roomService = new GraphRoomService(db)
-      def sessionFactory = new MapSessionFactory(links, roomService)
+      def roomService = new GraphRoomService(db, RoomCache.DEFAULT_SIZE, layout)
+      def metered = new MeteredRoomService(roomService, new CrawlMetrics(roomService))
+      def sessionFactory = new MapSessionFactory(links, metered)
 
     when:
-      def linksCreated = Crawler.crawl(crawlers, 1000, roomService, sessionFactory)
+      def linksCreated = Crawler.crawl(crawlers, 1000, metered, sessionFactory)
       def relationships = 0
       def nodes = 0
       org.neo4j.graphdb.Transaction tx = db.beginTx()
@@ -58,15 +65,35 @@ class CrawlerTest extends Specification {
         tx.close()
       }
 
-    then:
+    then: 'one relationship per link, and no stale ones left in the cache by a room linked without first loading its relationships'
       relationships == links.size()
       nodes == rooms.size()
       linksCreated == links.size()
+      roomService.countUnexplored() == 0
+
+    and: 'every room the sessions looked up was timed'
+      metered.metrics.getHistogram(Operation.FIND_OR_CREATE).count > 0
 
     where:
+      layout << [GraphLayout.PLACEHOLDERS, GraphLayout.OPEN_EXITS]
       crawlers = 5
   }
 
+  def "many crawlers can share a server and the room service within limits"() {
+    given: 'an in-memory map, so the crawl is bound by the limits rather than the store'
+      def roomService = new MemoryRoomService()
+      def executor = new CrawlExecutor(roomService, new CrawlCoordinator(), 2, CrawlExecutor.DEFAULT_STACK_SIZE)
+          .addTarget(new MapSessionFactory(links, roomService), 50, 4, 5)
+
+    when:
+      def linksCreated = executor.run()
+
+    then:
+      linksCreated == links.size()
+      roomService.roomCount == rooms.size()
+      roomService.countUnexplored() == 0
+  }
+
   def setupSpec() {
     TestUtils.decoratePropertyContainer()
   }
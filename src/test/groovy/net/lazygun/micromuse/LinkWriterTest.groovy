@@ -0,0 +1,174 @@
+package net.lazygun.micromuse
+
+import net.lazygun.micromuse.async.Promise
+import net.lazygun.micromuse.neo4j.GraphRoomService
+import net.lazygun.micromuse.neo4j.RoomNode
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.test.TestGraphDatabaseFactory
+import org.neo4j.tooling.GlobalGraphOperations
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * @author Ewan
+ */
+class LinkWriterTest extends Specification {
+
+  GraphDatabaseService db
+  GraphRoomService roomService
+  LinkWriter writer
+
+  def "links handed over together are made together"() {
+    given: 'a hub with fifty unexplored exits'
+      def hub = inTransaction { roomService.findOrCreate(new RoomImpl('Hub', '#0', '', (1..50).collect { "e$it".toString() })) }
+
+    when: 'a link through every exit is handed to the writer at once'
+      def promises = (1..50).collect { writer.write(hub, "e$it", new RoomImpl("Room $it", null, '', ['back'])) }
+      def links = promises.collect { it.get(10, TimeUnit.SECONDS) }
+
+    then: 'they are all made, in far fewer transactions'
+      links*.to*.name == (1..50).collect { "Room $it" }
+      writer.written == 50
+      writer.batches < 10
+      inTransaction { hub.exit('e25').name } == 'Room 25'
+      count { it.getAllNodesWithLabel(RoomNode.UNEXPLORED) } == 50
+  }
+
+  def "an exit can only be linked once, whether or not the first link has been made yet"() {
+    given:
+      def hall = inTransaction { roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north'])) }
+
+    when: 'two links through the same exit are handed over together'
+      def first = writer.write(hall, 'north', new RoomImpl('Kitchen', null, '', []))
+      def second = writer.write(hall, 'north', new RoomImpl('Larder', null, '', []))
+      second.get()
+
+    then: 'the second fails at once'
+      def e = thrown(ExecutionException)
+      e.cause instanceof LinkAlreadyExistsException
+      first.get().to.name == 'Kitchen'
+
+    when: 'a third is handed over after the first has been made'
+      writer.write(hall, 'north', new RoomImpl('Cellar', null, '', [])).get()
+
+    then:
+      e = thrown(ExecutionException)
+      e.cause instanceof LinkAlreadyExistsException
+      inTransaction { hall.exit('north').name } == 'Kitchen'
+  }
+
+  def "a link's promise is kept once it's made, even if a listener fails to hear of it"() {
+    given: 'a listener that fails, and one after it that listens'
+      def hall = inTransaction { roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north'])) }
+      def heard = []
+      writer.addListener({ throw new IllegalStateException('Not listening') } as CrawlListener)
+      writer.addListener({ heard << it } as CrawlListener)
+
+    when:
+      def link = writer.write(hall, 'north', new RoomImpl('Kitchen', null, '', [])).get(10, TimeUnit.SECONDS)
+
+    then:
+      link.to.name == 'Kitchen'
+      heard*.to*.name == ['Kitchen']
+      writer.written == 1
+  }
+
+  def "every link handed over is either made or refused, however near its writer is to closing"() {
+    given: 'a hub with two hundred unexplored exits, and four threads ready to hand over links through them'
+      def hub = inTransaction { roomService.findOrCreate(new RoomImpl('Hub', '#0', '', (1..200).collect { "e$it".toString() })) }
+      def executor = Executors.newFixedThreadPool(4)
+      def start = new CountDownLatch(1)
+      def handedOver = [1, 51, 101, 151].collect { int first ->
+        executor.submit({
+          start.await()
+          (first..<first + 50).collect { i ->
+            try {
+              writer.write(hub, "e$i", new RoomImpl("Room $i", null, '', []))
+            } catch (IllegalStateException ignored) {
+              null
+            }
+          }
+        } as Callable)
+      }
+
+    when: 'the writer is closed while they do'
+      start.countDown()
+      writer.close()
+      def promises = handedOver.collectMany { it.get(10, TimeUnit.SECONDS) }.findAll { it != null }
+      executor.shutdown()
+
+    then: 'every promise is settled, and as many links were made as were kept'
+      promises.every { it.done }
+      promises.count { !failed(it) } == writer.written
+      count { it.getAllNodesWithLabel(RoomNode.UNEXPLORED) } == 200 - writer.written
+  }
+
+  def "crawlers can hand their links to a writer"() {
+    given: 'a small tree of rooms, named so that no two share a fingerprint'
+      def links = []
+      def parents = [new RoomImpl('0', '#0', '', ['a', 'b'])]
+      (1..3).each { depth ->
+        def children = []
+        parents.each { parent ->
+          parent.exits.findAll { it != 'up' }.each { exit ->
+            def child = new RoomImpl(parent.name + '/' + exit, null, '', depth < 3 ? ['a', 'b', 'up'] : ['up'])
+            links << new Link(parent, exit, child) << new Link(child, 'up', parent)
+            children << child
+          }
+        }
+        parents = children
+      }
+      def executor = new CrawlExecutor(roomService, new CrawlCoordinator())
+          .addTarget(new MapSessionFactory(links, roomService), 4, CrawlExecutor.UNLIMITED, 0)
+          .writeBehind(writer)
+
+    when:
+      def linksCreated = executor.run()
+
+    then:
+      linksCreated == links.size()
+      count { it.allRelationships } == links.size()
+      count { it.getAllNodesWithLabel(RoomNode.UNEXPLORED) } == 0
+      writer.batches < links.size()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    roomService = new GraphRoomService(db)
+    writer = new LinkWriter(roomService, LinkWriter.DEFAULT_BATCH_SIZE, 50)
+  }
+
+  def cleanup() {
+    writer.close()
+    db.shutdown()
+  }
+
+  private <T> T inTransaction(Closure<T> work) {
+    def tx = roomService.beginTransaction()
+    try {
+      def result = work()
+      tx.success()
+      result
+    } finally {
+      tx.close()
+    }
+  }
+
+  private static boolean failed(Promise promise) {
+    try {
+      promise.get()
+      false
+    } catch (ExecutionException ignored) {
+      true
+    }
+  }
+
+  private int count(Closure<Iterable> query) {
+    inTransaction { query(GlobalGraphOperations.at(db)).iterator().size() }
+  }
+}
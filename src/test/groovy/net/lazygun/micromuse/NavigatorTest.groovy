@@ -0,0 +1,87 @@
+package net.lazygun.micromuse
+
+import net.lazygun.micromuse.memory.MemoryRoomService
+import spock.lang.Specification
+
+/**
+ * @author Ewan
+ */
+class NavigatorTest extends Specification {
+
+  MemoryRoomService roomService = new MemoryRoomService()
+  RoomImpl hall = new RoomImpl('Hall', '#1', '', ['north'])
+  RoomImpl kitchen = new RoomImpl('Kitchen', null, '', ['east', 'south'])
+  RoomImpl larder = new RoomImpl('Larder', null, '', ['west'])
+  List<Link> links = [new Link(hall, 'north', kitchen), new Link(kitchen, 'south', hall),
+                      new Link(kitchen, 'east', larder), new Link(larder, 'west', kitchen)]
+  int lookups = 0
+
+  def "rooms that look as expected are not looked up again"() {
+    given: 'the way from the hall to the kitchen is known, but not what lies beyond'
+      def start = roomService.findOrCreate(hall)
+      start.link('north', kitchen).to.link('south', hall)
+      def navigator = new Navigator(new MapSession(countingLookups(), links), resolveAhead)
+      lookups = 0
+
+    when:
+      def last = navigator.traverse(start.findNearestUnexplored())
+
+    then:
+      last.to.name == 'Larder'
+      lookups == expectedLookups
+
+    where:
+      resolveAhead | expectedLookups
+      true         | 1
+      false        | 2
+  }
+
+  def "a room that doesn't look as expected is still caught"() {
+    given:
+      def start = roomService.findOrCreate(hall)
+      def elsewhere = roomService.findOrCreate(new RoomImpl('Elsewhere', null, '', ['east']))
+      def navigator = new Navigator(new MapSession(countingLookups(), links))
+
+    when:
+      navigator.traverse(new Route([new Link(start, 'north', elsewhere), new Link(elsewhere, 'east', larder)]))
+
+    then:
+      def e = thrown(UnexpectedRoomException)
+      e.actual.name == 'Kitchen'
+  }
+
+  def "a planned route that is only a teleport is followed by teleporting"() {
+    given: 'we are in the larder, and the planner has said the hall is best teleported to'
+      def start = roomService.findOrCreate(hall)
+      def session = new MapSession(roomService, links)
+      session.teleport('#1')
+      session.exit('north')
+      session.exit('east')
+      def navigator = new Navigator(session)
+
+    when:
+      def room = navigator.goTo(roomService.routeFinder().find(navigator.currentRoom(), start), start)
+
+    then:
+      room == start
+      navigator.currentRoom() == start
+  }
+
+  def "signatures don't depend on the order of exits, but do on where one value ends"() {
+    expect:
+      ExpectedRooms.signature(new RoomImpl('Hall', null, '', ['a', 'b'])) ==
+          ExpectedRooms.signature(roomService.findOrCreate(new RoomImpl('Hall', null, '', ['b', 'a'])))
+      ExpectedRooms.signature(new RoomImpl('0a', null, '', ['a', 'b', 'up'])) !=
+          ExpectedRooms.signature(new RoomImpl('0aab', null, '', ['up']))
+      ExpectedRooms.signature(new RoomImpl('Hall', '#1', '', [])) !=
+          ExpectedRooms.signature(new RoomImpl('Hall', null, '', []))
+  }
+
+  private RoomService countingLookups() {
+    [findOrCreate    : { Room room -> lookups++; roomService.findOrCreate(room) },
+     builder         : { roomService.builder() },
+     countUnexplored : { roomService.countUnexplored() },
+     routeFinder     : { roomService.routeFinder() },
+     beginTransaction: { roomService.beginTransaction() }] as RoomService
+  }
+}
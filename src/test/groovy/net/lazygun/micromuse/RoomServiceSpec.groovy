@@ -0,0 +1,132 @@
+package net.lazygun.micromuse
+
+import spock.lang.Specification
+
+/**
+ * What every {@link RoomService} must do, whatever it keeps its map in. Each implementation's
+ * test extends this and says how to make one.
+ *
+ * @author Ewan
+ */
+abstract class RoomServiceSpec extends Specification {
+
+  RoomService roomService
+  Transaction tx
+
+  abstract RoomService createRoomService()
+
+  void destroyRoomService() {}
+
+  def "a room is found rather than created a second time"() {
+    when:
+      def first = roomService.findOrCreate(new RoomImpl('Hall', '#1', 'A hall', ['b', 'a']))
+      def second = roomService.findOrCreate(new RoomImpl('Hall', '#1', 'A hall', ['a', 'b']))
+
+    then:
+      first == second
+      first.id == second.id
+      first.name == 'Hall'
+      first.location == '#1'
+      first.teleportable
+      !first.unexplored
+      first.exits == ['a', 'b']
+  }
+
+  def "a batch of rooms is found or created together, each of them once"() {
+    given:
+      def hall = roomService.findOrCreate(new RoomImpl('Hall', '#1', '', ['north']))
+
+    when: 'a batch has the hall, a new room twice over, and another new room'
+      def found = roomService.findOrCreateAll([
+          new RoomImpl('Kitchen', null, '', ['south', 'east']),
+          new RoomImpl('Hall', '#1', '', ['north']),
+          new RoomImpl('Kitchen', null, '', ['east', 'south']),
+          new RoomImpl('Larder', null, '', [])])
+
+    then:
+      found*.name == ['Kitchen', 'Hall', 'Kitchen', 'Larder']
+      found[1].id == hall.id
+      found[0].id == found[2].id
+      found*.id.unique().size() == 3
+      found[0].exit('east').unexplored
+      roomService.countUnexplored() == 3
+  }
+
+  def "a new room has an unexplored room behind each exit"() {
+    when:
+      def room = roomService.builder().name('Cellar').exits('up', 'down').build()
+
+    then:
+      !room.teleportable
+      room.exit('up').unexplored
+      room.exit('down').unexplored
+      room.exit('up') != room.exit('down')
+      roomService.countUnexplored() == 2
+  }
+
+  def "linking an exit replaces the unexplored room behind it, once"() {
+    given:
+      def hall = roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north']))
+
+    when:
+      def link = hall.link('north', new RoomImpl('Kitchen', null, '', ['south']))
+
+    then:
+      link.from == hall
+      link.to.name == 'Kitchen'
+      hall.exit('north') == link.to
+      link.to.exit('south').unexplored
+      roomService.countUnexplored() == 1
+
+    when:
+      hall.link('north', new RoomImpl('Larder', null, '', []))
+
+    then:
+      thrown(LinkAlreadyExistsException)
+  }
+
+  def "there is no exit that a room doesn't have"() {
+    when:
+      roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north'])).exit('south')
+
+    then:
+      thrown(IllegalArgumentException)
+  }
+
+  def "the nearest unexplored room is found, passing over excluded rooms"() {
+    given: 'a hall with one exit explored and one not, and two unexplored exits beyond'
+      def hall = roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north', 'west']))
+      def kitchen = hall.link('north', new RoomImpl('Kitchen', null, '', ['east', 'up'])).to
+
+    when:
+      def nearest = hall.findNearestUnexplored()
+
+    then:
+      nearest.size() == 1
+      nearest.first().from == hall
+      nearest.first().exit == 'west'
+      nearest.last().to.unexplored
+
+    when:
+      def further = hall.findNearestUnexplored([nearest.last().to.id] as Set)
+
+    then:
+      further.size() == 2
+      further.first().exit == 'north'
+      further.last().from == kitchen
+      further.last().to.unexplored
+
+    expect:
+      hall.findNearestUnexplored([hall.exit('west').id, kitchen.exit('east').id, kitchen.exit('up').id] as Set) == null
+  }
+
+  def setup() {
+    roomService = createRoomService()
+    tx = roomService.beginTransaction()
+  }
+
+  def cleanup() {
+    tx.close()
+    destroyRoomService()
+  }
+}
@@ -0,0 +1,66 @@
+package net.lazygun.micromuse
+
+import net.lazygun.micromuse.memory.MemoryRoomService
+import net.lazygun.micromuse.metrics.CrawlMetrics
+import spock.lang.Specification
+
+/**
+ * @author Ewan
+ */
+class RouteCacheTest extends Specification {
+
+  def roomService = new MemoryRoomService()
+  def metrics = new CrawlMetrics()
+  def cache = new RouteCache(16, metrics)
+
+  def "searches are answered from the cache until their room is excluded"() {
+    given:
+      def hall = roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north', 'south']))
+
+    when: 'we search from the same room twice, at the same version'
+      def route = cache.find(hall, [] as Set, 1)
+      def again = cache.find(hall, [] as Set, 1)
+
+    then: 'only the first search is made'
+      again.is(route)
+      metrics.routeCacheHits == 1
+      metrics.routeCacheMisses == 1
+      metrics.routeCacheHitRate == 0.5
+
+    when: 'the room it found is claimed'
+      def next = cache.find(hall, [route.last().to.id] as Set, 1)
+
+    then: 'we search again, and find the other'
+      next.last().to.id != route.last().to.id
+      metrics.routeCacheMisses == 2
+  }
+
+  def "a search made at an earlier version is made again"() {
+    given: 'a hall with an unexplored room next door, and a kitchen beyond with another'
+      def hall = roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north', 'east']))
+      def kitchen = hall.link('north', new RoomImpl('Kitchen', null, '', ['south', 'west'])).to
+      kitchen.link('south', hall)
+      def east = hall.exit('east').id
+
+    when: 'we search from the hall while the room next door is claimed'
+      def around = cache.find(hall, [east] as Set, 1)
+
+    then: 'we have to go the long way round, until the claim is given back'
+      around.size() == 2
+      cache.find(hall, [east] as Set, 1).is(around)
+      cache.find(hall, [] as Set, 2).size() == 1
+      metrics.routeCacheMisses == 2
+  }
+
+  def "finding nothing is remembered too"() {
+    given:
+      def hall = roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north']))
+      def claimed = [hall.exit('north').id] as Set
+
+    expect:
+      cache.find(hall, claimed, 1) == null
+      cache.find(hall, claimed, 1) == null
+      metrics.routeCacheHits == 1
+      cache.find(hall, [] as Set, 2) != null
+  }
+}
@@ -0,0 +1,47 @@
+package net.lazygun.micromuse
+
+import spock.lang.Specification
+
+/**
+ * @author Ewan
+ */
+class RouteTest extends Specification {
+
+  def rooms = (0..5).collect { new RoomImpl("room $it", it in [1, 3] ? "#$it" : null, '', ['next']) }
+  def route = new Route((0..4).collect { new Link(rooms[it], 'next', rooms[it + 1]) })
+
+  def "head and tail are views of the same path"() {
+    expect:
+      route.tail().size() == 4
+      route.tail().first().from == rooms[1]
+      route.head().last().to == rooms[4]
+      route.tail().tail().head().toList()*.from == rooms[2..3]
+      route.get(2).from == rooms[2]
+  }
+
+  def "routes of one link have empty heads and tails"() {
+    given:
+      def single = route.tail().tail().tail().tail()
+
+    expect:
+      single.size() == 1
+      single.tail().size() == 0
+      single.head().size() == 0
+      single.tail().first() == null
+  }
+
+  def "the route from the last teleportable room starts there"() {
+    expect:
+      route.fromLastTeleportable().first().from == rooms[3]
+      route.fromLastTeleportable().size() == 2
+      route.head().head().fromLastTeleportable().first().from == rooms[1]
+  }
+
+  def "a route through no teleportable rooms is its own route from the last teleportable room"() {
+    given:
+      def last = route.tail().tail().tail().tail()
+
+    expect:
+      last.fromLastTeleportable().is(last)
+  }
+}
@@ -0,0 +1,80 @@
+package net.lazygun.micromuse.async
+
+import net.lazygun.micromuse.*
+import net.lazygun.micromuse.memory.MemoryRoomService
+import spock.lang.Specification
+
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * @author Ewan
+ */
+class AsyncNavigatorTest extends Specification {
+
+  ExecutorService executor = Executors.newSingleThreadExecutor()
+  MemoryRoomService roomService = new MemoryRoomService()
+  RoomImpl hall = new RoomImpl('Hall', '#1', '', ['north'])
+  RoomImpl kitchen = new RoomImpl('Kitchen', null, '', ['east', 'south'])
+  RoomImpl larder = new RoomImpl('Larder', null, '', ['west'])
+  List<Link> links = [new Link(hall, 'north', kitchen), new Link(kitchen, 'south', hall),
+                      new Link(kitchen, 'east', larder), new Link(larder, 'west', kitchen)]
+
+  def "many sessions can follow routes on one thread"() {
+    given: 'the way from the hall to the kitchen is known, but not what lies beyond'
+      def start = roomService.findOrCreate(hall)
+      start.link('north', kitchen).to.link('south', hall)
+      def route = start.findNearestUnexplored()
+      def sessions = (1..20).collect { new SerialAsyncSession(new MapSession(roomService, links), executor) }
+
+    when: 'every session sets off along the route at once'
+      def arrivals = sessions.collect { new AsyncNavigator(it).traverse(route) }
+
+    then: 'they all check the kitchen on the way, and end up in the larder'
+      arrivals.every { it.get(10, TimeUnit.SECONDS).to.name == 'Larder' }
+      sessions.every { it.currentRoom.name == 'Larder' }
+  }
+
+  def "a route that doesn't match the map fails at the first wrong room"() {
+    given:
+      def start = roomService.findOrCreate(hall)
+      def elsewhere = roomService.findOrCreate(new RoomImpl('Elsewhere', null, '', ['east']))
+      def session = new SerialAsyncSession(new MapSession(roomService, links), executor)
+
+    when:
+      new AsyncNavigator(session).traverse(new Route([new Link(start, 'north', elsewhere),
+                                                      new Link(elsewhere, 'east', larder)])).get()
+
+    then:
+      def e = thrown(ExecutionException)
+      e.cause instanceof UnexpectedRoomException
+      e.cause.actual.name == 'Kitchen'
+  }
+
+  def "steps chained onto a promise run in order, and failures skip them"() {
+    given:
+      def first = new Promise<Integer>()
+      def doubled = first.then({ Promise.of(it * 2) } as Promise.Step)
+      def failed = first.then({ throw new IllegalStateException('no') } as Promise.Step).then({ Promise.of(it) } as Promise.Step)
+
+    when:
+      first.complete(21)
+
+    then:
+      doubled.get() == 42
+      !first.complete(1)
+
+    when:
+      failed.get()
+
+    then:
+      def e = thrown(ExecutionException)
+      e.cause instanceof IllegalStateException
+  }
+
+  def cleanup() {
+    executor.shutdownNow()
+  }
+}
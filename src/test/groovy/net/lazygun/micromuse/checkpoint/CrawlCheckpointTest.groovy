@@ -0,0 +1,107 @@
+package net.lazygun.micromuse.checkpoint
+
+import net.lazygun.micromuse.CrawlCoordinator
+import net.lazygun.micromuse.Link
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.Route
+import net.lazygun.micromuse.memory.MemoryRoomService
+import net.lazygun.micromuse.neo4j.GraphRoomService
+import org.neo4j.graphdb.factory.GraphDatabaseFactory
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+import java.util.concurrent.TimeUnit
+
+/**
+ * @author Ewan
+ */
+class CrawlCheckpointTest extends Specification {
+
+  def roomService = new MemoryRoomService()
+  File file = File.createTempFile('crawl', '.checkpoint')
+
+  def hall = roomService.findOrCreate(new RoomImpl('Hall', '#1', '', ['north', 'west']))
+  def kitchen = hall.link('north', new RoomImpl('Kitchen', null, '', ['south', 'east'])).to
+
+  def "a checkpoint is read back as it was written, without the routes that can't be followed from afresh"() {
+    given:
+      kitchen.link('south', hall)
+      def fromHall = hall.findNearestUnexplored([hall.exit('west').id] as Set)
+      def fromKitchen = new Route([new Link(kitchen, 'east', kitchen.exit('east'))])
+
+    when:
+      CrawlCheckpoint.of([kitchen, hall], [fromHall], [fromKitchen]).write(file)
+      def read = CrawlCheckpoint.read(file)
+
+    then:
+      read.positions as List == [kitchen.id, hall.id]
+      read.claims*.target == [kitchen.exit('east').id]
+      read.claims[0].size() == 2
+      read.claims[0].resolve(roomService).last().to == fromHall.last().to
+      read.frontier.empty
+  }
+
+  def "a resumed crawl is handed the routes it saved first, if they still lead somewhere unexplored"() {
+    given: 'a crawl that has claimed both the unexplored rooms it can find from the hall'
+      kitchen.link('south', hall)
+      def crawl = new CrawlCoordinator()
+      def first = crawl.claim(hall)
+      def second = crawl.claim(hall)
+
+    and: 'saved its progress'
+      new CheckpointWriter(crawl, file, 1, TimeUnit.HOURS).close()
+
+    when: 'one of its claims is linked before it is resumed'
+      def garden = hall.link('west', new RoomImpl('Garden', null, '', [])).to
+      def resumed = new CrawlCoordinator()
+      resumed.resume(CrawlCheckpoint.read(file), roomService)
+
+    then: 'a crawler with nothing to explore nearby is sent along the route still open'
+      first.last().exit == 'west'
+      def route = resumed.claim(garden)
+      route.first().from == hall
+      route.last().to.id == second.last().to.id
+      resumed.isClaimed(route.last().to.id)
+  }
+
+  def "a crawl is resumed in the store it was saved from, once that has been reopened"() {
+    given: 'a crawl on disk that has claimed the only unexplored room, and saved its progress'
+      def dir = Files.createTempDirectory('crawl').toFile()
+      def db = new GraphDatabaseFactory().newEmbeddedDatabase(dir.path)
+      def graph = new GraphRoomService(db)
+      def crawl = new CrawlCoordinator()
+      def tx = graph.beginTransaction()
+      def hall = graph.findOrCreate(new RoomImpl('Hall', '#1', '', ['north']))
+      crawl.moved(crawl.join(), hall)
+      def claimed = crawl.claim(hall)
+      tx.success()
+      tx.close()
+      new CheckpointWriter(crawl, file, 1, TimeUnit.HOURS).close()
+      db.shutdown()
+
+    when: 'the store is reopened and the crawl resumed'
+      db = new GraphDatabaseFactory().newEmbeddedDatabase(dir.path)
+      graph = new GraphRoomService(db)
+      def resumed = new CrawlCoordinator()
+      resumed.resume(CrawlCheckpoint.read(file), graph)
+      tx = graph.beginTransaction()
+      def start = resumed.startingRoom()
+      def route = resumed.claim(start)
+      tx.close()
+
+    then: 'the first crawler starts out where the last left off, and is sent the same way'
+      start.location == '#1'
+      route.size() == 1
+      route.last().exit == 'north'
+      route.last().to.id == claimed.last().to.id
+
+    cleanup:
+      db?.shutdown()
+      dir?.deleteDir()
+  }
+
+  def cleanup() {
+    file.delete()
+  }
+}
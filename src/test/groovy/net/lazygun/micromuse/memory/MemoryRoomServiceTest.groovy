@@ -0,0 +1,28 @@
+package net.lazygun.micromuse.memory
+
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.RoomService
+import net.lazygun.micromuse.RoomServiceSpec
+
+/**
+ * @author Ewan
+ */
+class MemoryRoomServiceTest extends RoomServiceSpec {
+
+  @Override
+  RoomService createRoomService() {
+    new MemoryRoomService(2)
+  }
+
+  def "the arrays grow as the map does"() {
+    when: 'we make a long corridor, well past the space made up front'
+      def room = roomService.findOrCreate(new RoomImpl('0', '#0', '', ['on']))
+      (1..100).each { room = room.link('on', new RoomImpl("$it", null, '', ['on'])).to }
+
+    then:
+      roomService.roomCount == 101 + 1
+      roomService.countUnexplored() == 1
+      roomService.findOrCreate(new RoomImpl('50', null, '', ['on'])).exit('on').name == '51'
+      roomService.findById(0).findNearestUnexplored().size() == 101
+  }
+}
@@ -0,0 +1,69 @@
+package net.lazygun.micromuse.metrics
+
+import spock.lang.Specification
+
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+
+/**
+ * @author Ewan
+ */
+class CrawlMetricsTest extends Specification {
+
+  def "histogram percentiles are within an eighth of the true value"() {
+    given:
+      def histogram = new LatencyHistogram()
+      (1..1000).each { histogram.record(it * 1000L) }
+
+    expect:
+      histogram.count == 1000
+      histogram.maxNanos == 1000000
+      within(histogram.getPercentileNanos(50), 500000)
+      within(histogram.getPercentileNanos(99), 990000)
+      histogram.getPercentileNanos(100) == 1000000
+  }
+
+  def "every small value has a bucket of its own"() {
+    expect:
+      (0..64).every { LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(it)) >= it }
+      (0..7).every { LatencyHistogram.bucketOf(it) == it }
+      LatencyHistogram.bucketOf(Long.MAX_VALUE) < 496
+  }
+
+  def "resetting the metrics empties the histograms that are being recorded into"() {
+    given:
+      def metrics = new CrawlMetrics()
+      def histogram = metrics.getHistogram(Operation.LINK)
+      metrics.record(Operation.LINK, System.nanoTime() - 2000000)
+
+    when:
+      metrics.reset()
+      metrics.record(Operation.LINK, System.nanoTime() - 1000)
+
+    then: 'the same histogram is kept, holding only what was recorded since'
+      metrics.getHistogram(Operation.LINK).is(histogram)
+      histogram.count == 1
+      histogram.maxNanos < 2000000
+  }
+
+  def "metrics can be read over JMX"() {
+    given:
+      def metrics = new CrawlMetrics().register('test')
+      metrics.linkCreated()
+      metrics.record(Operation.LINK, System.nanoTime() - 2000000)
+      def server = ManagementFactory.platformMBeanServer
+      def name = new ObjectName('net.lazygun.micromuse:type=CrawlMetrics,name="test"')
+
+    expect:
+      server.getAttribute(name, 'LinksCreated') == 1
+      server.getAttribute(name, 'FrontierSize') == -1
+      server.getAttribute(name, 'Latencies').get(['LINK'] as Object[]).value.get('count') == 1
+
+    cleanup:
+      metrics.unregister()
+  }
+
+  private static boolean within(long actual, long expected) {
+    actual >= expected && actual <= expected * 1.125
+  }
+}
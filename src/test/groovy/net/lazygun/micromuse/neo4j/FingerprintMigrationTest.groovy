@@ -0,0 +1,172 @@
+package net.lazygun.micromuse.neo4j
+
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.TestUtils
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.graphdb.factory.GraphDatabaseFactory
+import org.neo4j.test.TestGraphDatabaseFactory
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+/**
+ * @author Ewan
+ */
+class FingerprintMigrationTest extends Specification {
+
+  GraphDatabaseService db
+  GraphRoomService roomService
+
+  def "rooms with old fingerprints are given new ones, and can be found by them again"() {
+    given: 'two rooms with old fingerprints, and a copy of one made with its exits in another order'
+      def ids = inTx {
+        def hall = RoomNode.create('Hall', null, '', ['north', 'south'])
+        def lobby = RoomNode.create('Lobby', '#1', '', ['in'])
+        def copy = RoomNode.create('Hall', null, '', ['north', 'south', 'x'])
+        hall.setProperty(RoomNode.FINGERPRINT, 'a1b2')
+        lobby.setProperty(RoomNode.FINGERPRINT, 'c3d4')
+        copy.setProperty(RoomNode.FINGERPRINT, 'e5f6')
+        copy.setProperty(RoomNode.EXITS, ['south', 'north'] as String[])
+        [hall.id, lobby.id, copy.id]
+      }
+      assert inTx { RoomNode.findByFingerprint(RoomNode.createFingerPrint('Hall', null, ['north', 'south'])) } == null
+
+    when:
+      def migration = new FingerprintMigration(db, 2)
+      def migrated = migration.migrate()
+
+    then: 'each room is found by its new fingerprint, and the copy is left with none'
+      migrated == 2
+      migration.duplicates == 1
+      inTx { RoomNode.findByFingerprint(RoomNode.createFingerPrint('Hall', null, ['south', 'north'])).id } == ids[0]
+      inTx { RoomNode.findByFingerprint(RoomNode.createFingerPrint('Lobby', '#1', ['in'])).id } == ids[1]
+      inTx { RoomNode.findById(ids[2]).getProperty(RoomNode.FINGERPRINT, null) } == null
+
+    and: 'there is nothing left to migrate'
+      migration.migrate() == 0
+  }
+
+  def "a room is found by its fingerprint, without its signature or its exits"() {
+    given: 'a room left with no signature, and no exits in the graph'
+      def id = inTx {
+        def hall = RoomNode.create('Hall', null, '', ['north'])
+        hall.removeProperty(RoomNode.SIGNATURE)
+        hall.getRelationships().each { def placeholder = it.endNode; it.delete(); placeholder.delete() }
+        hall.id
+      }
+
+    expect:
+      inTx { RoomNode.findBySignature(RoomNode.createFingerPrint('Hall', null, ['north'])) } == null
+      inTx { RoomNode.findByExample(new RoomImpl('Hall', null, '', ['north'])).id } == id
+  }
+
+  def "a room without a fingerprint is found by its signature, without walking its exits"() {
+    given: 'a room left with no fingerprint, and no exits in the graph'
+      def id = inTx {
+        def hall = RoomNode.create('Hall', null, '', ['north'])
+        hall.removeProperty(RoomNode.FINGERPRINT)
+        hall.getRelationships().each { def placeholder = it.endNode; it.delete(); placeholder.delete() }
+        hall.id
+      }
+
+    expect: 'its fingerprint misses'
+      inTx { RoomNode.findByFingerprint(RoomNode.createFingerPrint('Hall', null, ['north'])) } == null
+      inTx { RoomNode.findByExample(new RoomImpl('Hall', null, '', ['north'])).id } == id
+  }
+
+  def "in a store that has yet to be signed, a room is found by its name and exits"() {
+    given: 'two rooms of the same name with neither fingerprint nor signature, in a store with no index on signatures'
+      def ids = inTx {
+        [['north', 'south'], ['north']].collect {
+          def hall = RoomNode.create('Hall', null, '', it)
+          hall.removeProperty(RoomNode.FINGERPRINT)
+          hall.removeProperty(RoomNode.SIGNATURE)
+          hall.id
+        }
+      }
+      inTx { db.schema().getIndexes(RoomNode.ROOM).findAll { it.propertyKeys.toList() == [RoomNode.SIGNATURE] }*.drop() }
+      new GraphRoomService(db)
+
+    expect: 'the one with the same exits is found, whatever order they are given in'
+      inTx { RoomNode.findByExample(new RoomImpl('Hall', null, '', ['south', 'north'])).id } == ids[0]
+      inTx { RoomNode.findByExample(new RoomImpl('Hall', null, '', ['north'])).id } == ids[1]
+      inTx { RoomNode.findByExample(new RoomImpl('Hall', null, '', ['west'])) } == null
+  }
+
+  def "a store made before rooms had signatures is signed by its migration"() {
+    given: 'a room with no signature, in a store with no index on them'
+      def id = inTx {
+        def hall = RoomNode.create('Hall', null, '', ['north'])
+        hall.removeProperty(RoomNode.FINGERPRINT)
+        hall.removeProperty(RoomNode.SIGNATURE)
+        hall.id
+      }
+      inTx { db.schema().getIndexes(RoomNode.ROOM).findAll { it.propertyKeys.toList() == [RoomNode.SIGNATURE] }*.drop() }
+      new GraphRoomService(db)
+
+    when:
+      def migration = new FingerprintMigration(db)
+      migration.migrate()
+
+    then: 'the room is signed, and the signatures indexed'
+      migration.signed == 1
+      migration.migrated == 0
+      inTx { db.schema().getIndexes(RoomNode.ROOM).any { it.propertyKeys.toList() == [RoomNode.SIGNATURE] } }
+      inTx { RoomNode.findBySignature(RoomNode.createFingerPrint('Hall', null, ['north'])).id } == id
+
+    and: 'there is nothing left to sign'
+      migration.migrate() == 0
+      migration.signed == 1
+  }
+
+  def "an existing store on disk can be migrated from the command line"() {
+    given: 'a store with an old fingerprint, closed'
+      def dir = Files.createTempDirectory('migrate').toFile()
+      def onDisk = new GraphDatabaseFactory().newEmbeddedDatabase(dir.path)
+      new GraphRoomService(onDisk)
+      def tx = onDisk.beginTx()
+      RoomNode.create('Hall', null, '', ['north']).setProperty(RoomNode.FINGERPRINT, 'a1b2')
+      tx.success()
+      tx.close()
+      onDisk.shutdown()
+
+    when:
+      FingerprintMigration.main(dir.path)
+      onDisk = new GraphDatabaseFactory().newEmbeddedDatabase(dir.path)
+      new GraphRoomService(onDisk)
+      tx = onDisk.beginTx()
+      def hall = RoomNode.findByFingerprint(RoomNode.createFingerPrint('Hall', null, ['north']))
+      tx.close()
+
+    then:
+      hall.name == 'Hall'
+
+    cleanup:
+      onDisk?.shutdown()
+      dir?.deleteDir()
+  }
+
+  def setupSpec() {
+    TestUtils.decoratePropertyContainer()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    roomService = new GraphRoomService(db)
+  }
+
+  def cleanup() {
+    db.shutdown()
+  }
+
+  private <T> T inTx(Closure<T> work) {
+    def tx = db.beginTx()
+    try {
+      T result = work()
+      tx.success()
+      return result
+    } finally {
+      tx.close()
+    }
+  }
+}
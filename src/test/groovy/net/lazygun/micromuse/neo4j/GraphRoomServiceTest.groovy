@@ -0,0 +1,25 @@
+package net.lazygun.micromuse.neo4j
+
+import net.lazygun.micromuse.RoomService
+import net.lazygun.micromuse.RoomServiceSpec
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.test.TestGraphDatabaseFactory
+
+/**
+ * @author Ewan
+ */
+class GraphRoomServiceTest extends RoomServiceSpec {
+
+  GraphDatabaseService db
+
+  @Override
+  RoomService createRoomService() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    new GraphRoomService(db)
+  }
+
+  @Override
+  void destroyRoomService() {
+    db.shutdown()
+  }
+}
@@ -0,0 +1,154 @@
+package net.lazygun.micromuse.neo4j
+
+import net.lazygun.micromuse.Link
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.TestUtils
+import net.lazygun.micromuse.record.LinkRecordReader
+import net.lazygun.micromuse.record.LinkRecordWriter
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.graphdb.factory.GraphDatabaseFactory
+import org.neo4j.test.TestGraphDatabaseFactory
+import org.neo4j.tooling.GlobalGraphOperations
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+/**
+ * @author Ewan
+ */
+class MapImporterTest extends Specification {
+
+  GraphDatabaseService db
+  GraphRoomService roomService
+  List<Link> links = []
+  Set<RoomImpl> rooms = []
+
+  def "an imported recording becomes the whole map"() {
+    when: 'we import the recording a few links at a time'
+      def importer = new MapImporter(db, 7, 5, layout)
+      def imported = importer.importLinks(reader())
+
+    then: 'every link and room is in the graph, and nothing is left unexplored'
+      imported == links.size()
+      importer.roomsCreated == rooms.size()
+      count { it.allRelationships } == links.size()
+      count { it.getAllNodesWithLabel(RoomNode.ROOM) } == rooms.size()
+      count { it.getAllNodesWithLabel(RoomNode.UNEXPLORED) } == 0
+      count { it.getAllNodesWithLabel(RoomNode.FRONTIER) } == 0
+      count { it.getAllNodesWithLabel(RoomNode.TELEPORTABLE) } == rooms.count { it.teleportable }
+
+    where:
+      layout << [GraphLayout.PLACEHOLDERS, GraphLayout.OPEN_EXITS]
+  }
+
+  def "imported rooms are the rooms RoomNode would have made"() {
+    given: 'half the map has been imported'
+      roomService.importer().importLinks(reader(links.size().intdiv(2)))
+
+    when: 'we look up a room that was imported'
+      def tx = db.beginTx()
+      def room = roomService.findOrCreate(links[0].from)
+      def unexplored = room.findNearestUnexplored()
+      tx.close()
+
+    then: 'it was found rather than created, and leads on to the rest of the map'
+      room.name == links[0].from.name
+      unexplored != null
+  }
+
+  def "importing a recording twice skips the links already made"() {
+    given:
+      def importer = roomService.importer()
+      importer.importLinks(reader())
+
+    when:
+      def imported = importer.importLinks(reader())
+
+    then:
+      imported == 0
+      importer.linksSkipped == links.size()
+      count { it.allRelationships } == links.size()
+  }
+
+  def "recordings can be imported on top of an existing store on disk"() {
+    given: 'half the map recorded in one file, and all of it in another'
+      def dir = Files.createTempDirectory('import').toFile()
+      def half = record(links.size().intdiv(2))
+      def all = record(links.size())
+
+    when: 'each is imported from the command line in turn'
+      MapImporter.main(dir.path, half.path)
+      MapImporter.main(dir.path, all.path)
+      def onDisk = new GraphDatabaseFactory().newEmbeddedDatabase(dir.path)
+      def tx = onDisk.beginTx()
+      def imported = GlobalGraphOperations.at(onDisk).allRelationships.iterator().size()
+      tx.close()
+
+    then: 'the second fills in the rest of the map'
+      imported == links.size()
+
+    cleanup:
+      onDisk?.shutdown()
+      dir?.deleteDir()
+      half?.delete()
+      all?.delete()
+  }
+
+  def setupSpec() {
+    TestUtils.decoratePropertyContainer()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    roomService = new GraphRoomService(db)
+    def root = room('0', '#0', ['a', 'b'])
+    def parents = [root]
+    (1..3).each { depth ->
+      def children = []
+      parents.each { parent ->
+        parent.exits.findAll { it != 'up' }.each { exit ->
+          def child = room(parent.name + exit, exit == 'b' ? "#${rooms.size()}" : null, depth < 3 ? ['a', 'b', 'up'] : ['up'])
+          links << new Link(parent, exit, child)
+          links << new Link(child, 'up', parent)
+          children << child
+        }
+      }
+      parents = children
+    }
+  }
+
+  def cleanup() {
+    db.shutdown()
+  }
+
+  private RoomImpl room(String name, String location, List exits) {
+    def room = new RoomImpl(name, location, 'Somewhere', exits*.toString())
+    rooms << room
+    room
+  }
+
+  private LinkRecordReader reader(int count = links.size()) {
+    def recording = new StringWriter()
+    def writer = new LinkRecordWriter(recording)
+    links.take(count).each { writer.write(it) }
+    writer.close()
+    new LinkRecordReader(new StringReader(recording.toString()))
+  }
+
+  private File record(int count) {
+    def file = File.createTempFile('links', '.rec')
+    def writer = new LinkRecordWriter(file)
+    links.take(count).each { writer.write(it) }
+    writer.close()
+    file
+  }
+
+  private int count(Closure<Iterable> query) {
+    def tx = db.beginTx()
+    try {
+      query(GlobalGraphOperations.at(db)).iterator().size()
+    } finally {
+      tx.close()
+    }
+  }
+}
@@ -0,0 +1,53 @@
+package net.lazygun.micromuse.neo4j
+
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.RoomService
+import net.lazygun.micromuse.RoomServiceSpec
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.test.TestGraphDatabaseFactory
+import org.neo4j.tooling.GlobalGraphOperations
+
+/**
+ * @author Ewan
+ */
+class OpenExitsRoomServiceTest extends RoomServiceSpec {
+
+  GraphDatabaseService db
+
+  def "unexplored exits are kept on their room, and linking one adds a single relationship"() {
+    given:
+      def ops = GlobalGraphOperations.at(db)
+      def hall = roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north', 'south']))
+
+    expect: 'no placeholders, and the hall on the frontier'
+      ops.getAllNodesWithLabel(RoomNode.ROOM).toList().size() == 1
+      ops.getAllNodesWithLabel(RoomNode.FRONTIER)*.id == [hall.id]
+      !ops.allRelationships.iterator().hasNext()
+
+    when: 'we link both its exits'
+      def kitchen = hall.link('north', new RoomImpl('Kitchen', null, '', ['east', 'south'])).to
+      kitchen.link('south', hall)
+      def nearest = hall.findNearestUnexplored()
+      def south = hall.exit('south')
+      hall.link('south', new RoomImpl('Garden', null, '', []))
+
+    then: 'one relationship each, and only the kitchen, with its way east, is left on the frontier'
+      nearest.size() == 1
+      nearest.last().to == south
+      hall.exit('south').name == 'Garden'
+      ops.allRelationships.toList().size() == 3
+      ops.getAllNodesWithLabel(RoomNode.FRONTIER)*.id == [kitchen.id]
+      roomService.countUnexplored() == 1
+  }
+
+  @Override
+  RoomService createRoomService() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    new GraphRoomService(db, RoomCache.DEFAULT_SIZE, GraphLayout.OPEN_EXITS)
+  }
+
+  @Override
+  void destroyRoomService() {
+    db.shutdown()
+  }
+}
@@ -0,0 +1,154 @@
+package net.lazygun.micromuse.neo4j
+
+import net.lazygun.micromuse.TestUtils
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.test.TestGraphDatabaseFactory
+import spock.lang.Specification
+
+/**
+ * @author Ewan
+ */
+class RoomCacheTest extends Specification {
+
+  GraphDatabaseService db
+
+  def "repeated views of a room are served from the cache"() {
+    given: 'a room'
+      def id = inTx { RoomNode.create('room', null, '', ['a']).id }
+      def cache = RoomNode.cache
+      def misses = cache.misses
+
+    when: 'we view it twice'
+      inTx { RoomNode.findById(id); RoomNode.findById(id) }
+
+    then: 'only the first view reads the node'
+      cache.misses == misses + 1
+      cache.hits >= 1
+  }
+
+  def "linking a room invalidates its snapshot and its placeholder's"() {
+    given: 'a room whose only exit leads to an unexplored room'
+      def id = inTx { RoomNode.create('room', null, '', ['a']).id }
+      def placeholder = inTx { RoomNode.findById(id).exit('a').id }
+      assert inTx { RoomNode.findById(placeholder).unexplored }
+
+    when: 'we link the exit to a real room'
+      inTx { RoomNode.findById(id).link('a', RoomNode.create('other', null, '', [])) }
+
+    then: 'the room leads somewhere explored, and the placeholder is gone'
+      inTx { !RoomNode.findById(id).exit('a').unexplored }
+      inTx { RoomNode.findById(placeholder) } == null
+  }
+
+  def "exits are found through the snapshot, and links through them are seen at once"() {
+    given: 'a hub with many exits, and a view of it from before any are linked'
+      def id = inTx { RoomNode.create('hub', null, '', (1..40).collect { "exit $it".toString() }).id }
+      def before = inTx { RoomNode.findById(id) }
+
+    when: 'we link one, and go through it in the same transaction'
+      def seen = inTx {
+        def hub = RoomNode.findById(id)
+        hub.link('exit 20', RoomNode.create('spoke', null, '', ['back']))
+        hub.exit('exit 20').name
+      }
+
+    then: 'we reach the new room, as does every later view of the hub'
+      seen == 'spoke'
+      inTx { RoomNode.findById(id).exit('exit 20').name } == 'spoke'
+      inTx { RoomNode.findById(id).exit('exit 21').unexplored }
+
+    and: 'the view from before, whose snapshot is out of date, does too'
+      inTx { before.exit('exit 20').name } == 'spoke'
+  }
+
+  def "nothing a transaction changes is cached, and it's seen as it is in that transaction"() {
+    given: 'a room whose only exit leads to an unexplored room, and an empty cache'
+      def id = inTx { RoomNode.create('room', null, '', ['a']).id }
+      RoomNode.cache.clear()
+
+    when: 'a transaction links the exit to a new room, and views them both afresh before rolling back'
+      def tx = db.beginTx()
+      def seen
+      try {
+        def other = RoomNode.findById(id).link('a', RoomNode.create('other', null, '', ['b'])).to
+        seen = RoomNode.findById(id).exit('a').name
+        RoomNode.findById(other.id)
+      } finally {
+        tx.close()
+      }
+
+    then: 'the link was seen, but only the room and its placeholder, as they were before it, were cached'
+      seen == 'other'
+      RoomNode.cache.size() == 2
+      inTx { RoomNode.findById(id).exit('a').unexplored }
+  }
+
+  def "what a rolled back transaction was changing is cached again once it's closed"() {
+    given: 'a room whose only exit leads to an unexplored room'
+      def roomService = new GraphRoomService(db)
+      def id = inTx { RoomNode.create('room', null, '', ['a']).id }
+
+    when: 'a transaction links the exit, and is closed without succeeding'
+      def tx = roomService.beginTransaction()
+      def changing
+      try {
+        RoomNode.findById(id).link('a', RoomNode.create('other', null, '', []))
+        changing = RoomNode.cache.changingCount()
+      } finally {
+        tx.close()
+      }
+
+    then: 'the room is no longer marked as changing'
+      changing > 0
+      RoomNode.cache.changingCount() == 0
+
+    when: 'we view the room and its placeholder twice, from an empty cache'
+      RoomNode.cache.clear()
+      def misses = RoomNode.cache.misses
+      def unexplored = inTx {
+        RoomNode.findById(id).exit('a')
+        RoomNode.findById(id).exit('a').unexplored
+      }
+
+    then: 'only the first view reads them, and sees the link was rolled back'
+      RoomNode.cache.misses == misses + 2
+      unexplored
+  }
+
+  def "the cache never holds more than its maximum size"() {
+    given: 'a small cache, and more rooms than fit in it'
+      RoomNode.initialise(db, 2)
+      def ids = inTx { (1..5).collect { RoomNode.create("room $it", null, '', []).id } }
+
+    when: 'we view every room'
+      inTx { ids.each { RoomNode.findById(it) } }
+
+    then: 'the oldest were evicted'
+      RoomNode.cache.size() == 2
+      RoomNode.cache.evictions >= 3
+  }
+
+  def setupSpec() {
+    TestUtils.decoratePropertyContainer()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    RoomNode.initialise(db)
+  }
+
+  def cleanup() {
+    db.shutdown()
+  }
+
+  private <T> T inTx(Closure<T> work) {
+    def tx = db.beginTx()
+    try {
+      T result = work()
+      tx.success()
+      return result
+    } finally {
+      tx.close()
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package net.lazygun.micromuse.neo4j
+
+import spock.lang.Specification
+
+/**
+ * @author Ewan
+ */
+class RoomFingerprintTest extends Specification {
+
+  def "fingerprints don't depend on the order of exits, but do on where one value ends"() {
+    expect:
+      RoomFingerprint.of('Hall', null, ['a', 'b', 'up']) == RoomFingerprint.of('Hall', null, ['up', 'a', 'b'])
+      RoomFingerprint.of('0ba', null, ['a', 'b', 'up']) != RoomFingerprint.of('0bab', null, ['up'])
+      RoomFingerprint.of('Hall', null, ['ab']) != RoomFingerprint.of('Hall', null, ['a', 'b'])
+      RoomFingerprint.of('Hall', '', []) != RoomFingerprint.of('Hall', null, [])
+      RoomFingerprint.of('A long hall, with a name longer than a block', '#1', []) !=
+          RoomFingerprint.of('A long hall, with a name longer than a block.', '#1', [])
+  }
+
+  def "no two unexplored rooms have the same fingerprint"() {
+    expect:
+      RoomFingerprint.of('UNEXPLORED', null, []) != RoomFingerprint.of('UNEXPLORED', null, [])
+  }
+}
@@ -0,0 +1,137 @@
+package net.lazygun.micromuse.neo4j
+
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.TestUtils
+import net.lazygun.micromuse.TraversalException
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.test.TestGraphDatabaseFactory
+import spock.lang.Specification
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+
+import static java.util.concurrent.TimeUnit.SECONDS
+
+/**
+ * @author Ewan
+ */
+class RoomLocksTest extends Specification {
+
+  GraphDatabaseService db
+  GraphRoomService roomService
+
+  def "a linked room stays locked until the transaction that linked it closes"() {
+    given: 'two rooms leading to each other, and a transaction linking one way'
+      def hall = inTx { roomService.findOrCreate(new RoomImpl('Hall', null, '', ['north'])) }
+      def kitchen = inTx { roomService.findOrCreate(new RoomImpl('Kitchen', null, '', ['south'])) }
+      def tx = roomService.beginTransaction()
+      hall.link('north', kitchen)
+
+    when: 'another transaction tries to link the other way'
+      def executor = Executors.newSingleThreadExecutor()
+      def other = executor.submit({ inTx { kitchen.link('south', hall) } } as Callable)
+      Thread.sleep(200)
+
+    then: 'it waits'
+      !other.done
+
+    when: 'the first transaction commits'
+      tx.success()
+      tx.close()
+
+    then: 'the second goes ahead'
+      other.get(10, SECONDS).to == hall
+
+    cleanup:
+      executor.shutdown()
+  }
+
+  def "a lock lower than one already held is given up rather than waited for"() {
+    given: 'another thread holding the lock on room 1'
+      def locks = new RoomLocks(16)
+      def held = new CountDownLatch(1)
+      def done = new CountDownLatch(1)
+      Thread.start { locks.begin(); locks.lock(1); held.countDown(); done.await(); locks.end() }
+      held.await()
+
+    when: 'we lock room 5, then room 1'
+      locks.begin()
+      locks.lock(5)
+      locks.lock(1)
+
+    then:
+      thrown(TraversalException)
+      locks.conflicts == 1
+
+    cleanup:
+      locks.end()
+      done.countDown()
+  }
+
+  def "a lock that isn't free within the timeout is given up rather than waited for forever"() {
+    given: 'another thread holding the lock on room 1'
+      def locks = new RoomLocks(16, 100)
+      def held = new CountDownLatch(1)
+      def done = new CountDownLatch(1)
+      Thread.start { locks.begin(); locks.lock(1); held.countDown(); done.await(); locks.end() }
+      held.await()
+
+    when: 'we lock room 1, holding nothing else'
+      locks.begin()
+      locks.lock(1)
+
+    then:
+      thrown(TraversalException)
+      locks.conflicts == 1
+
+    cleanup:
+      locks.end()
+      done.countDown()
+  }
+
+  def "rooms linked both ways at once never deadlock"() {
+    given: 'a ring of rooms, each leading to its neighbours'
+      def size = 20
+      def rooms = inTx { (0..<size).collect { roomService.findOrCreate(new RoomImpl("room $it", null, '', ['cw', 'ccw'])) } }
+
+    when: 'every link in the ring is made at once, each in its own transaction'
+      def executor = Executors.newFixedThreadPool(8)
+      def links = (0..<size).collectMany { i ->
+        def j = (i + 1) % size
+        [{ inTx { rooms[i].link('cw', rooms[j]) } } as Callable,
+         { inTx { rooms[j].link('ccw', rooms[i]) } } as Callable]
+      }
+      def made = executor.invokeAll(links).collect { it.get(30, SECONDS) }
+      executor.shutdown()
+
+    then: 'none of them fail, and the ring is complete'
+      made.size() == size * 2
+      roomService.countUnexplored() == 0
+      roomService.locks.conflicts == 0
+  }
+
+  def setupSpec() {
+    TestUtils.decoratePropertyContainer()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    roomService = new GraphRoomService(db)
+  }
+
+  def cleanup() {
+    db.shutdown()
+  }
+
+  private <T> T inTx(Closure<T> work) {
+    def tx = roomService.beginTransaction()
+    try {
+      T result = work()
+      tx.success()
+      return result
+    } finally {
+      tx.close()
+    }
+  }
+}
@@ -0,0 +1,104 @@
+package net.lazygun.micromuse.neo4j
+
+import net.lazygun.micromuse.CrawlCoordinator
+import net.lazygun.micromuse.TestUtils
+import net.lazygun.micromuse.metrics.CrawlMetrics
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.graphdb.Transaction
+import org.neo4j.test.TestGraphDatabaseFactory
+import spock.lang.Specification
+
+/**
+ * @author Ewan
+ */
+class RoutePlannerTest extends Specification {
+
+  GraphDatabaseService db
+  Transaction tx
+  RoomNode start
+  RoomNode teleportable
+
+  def "teleports when that is cheaper than walking"() {
+    when: 'we plan a route to the nearest unexplored room, counting commands'
+      def route = new RoutePlanner(db).planToNearestUnexplored(start, [] as Set).toList()
+
+    then: 'we teleport to the teleportable room and take one exit'
+      route.size() == 1
+      route[0].from == teleportable
+      route[0].exit == 'd'
+      route[0].to.unexplored
+  }
+
+  def "walks when teleporting is expensive"() {
+    when: 'we plan a route where a teleport costs more than the whole walk'
+      def route = new RoutePlanner(db, new CostModel(1, 5)).planToNearestUnexplored(start, [] as Set).toList()
+
+    then: 'we walk the three steps from where we are'
+      route.size() == 3
+      route.first().from == start
+      route*.exit == ['a', 'b', 'c']
+  }
+
+  def "claimed rooms are not planned to"() {
+    given: 'the unexplored room behind the teleportable room has been claimed'
+      def claimed = [teleportable.exit('d').id] as Set
+
+    when: 'we plan a route to the nearest unexplored room'
+      def route = new RoutePlanner(db).planToNearestUnexplored(start, claimed).toList()
+
+    then: 'we walk to the other one'
+      route*.exit == ['a', 'b', 'c']
+  }
+
+  def "teleportable rooms made since the planner first planned are teleported to"() {
+    given: 'a planner that has planned once, and the unexplored room behind the teleportable room claimed'
+      def planner = new RoutePlanner(db)
+      def claimed = [teleportable.exit('d').id] as Set
+      assert planner.planToNearestUnexplored(start, claimed).first().from == start
+      tx.success()
+      tx.close()
+
+    when: 'another teleportable room is made'
+      tx = db.beginTx()
+      def lobby = RoomNode.create('lobby', '#L', '', ['e'])
+      tx.success()
+      tx.close()
+      tx = db.beginTx()
+
+    then: 'it is teleported to'
+      planner.planToNearestUnexplored(start, claimed).toList()*.from == [lobby]
+  }
+
+  def "a crawl coordinator hands out the planned route"() {
+    given:
+      def crawl = new CrawlCoordinator(new CrawlMetrics(), new RoutePlanner(db))
+
+    when:
+      def route = crawl.claim(start)
+
+    then: 'it teleports rather than walking the three steps from where we are'
+      route.size() == 1
+      route.first().from == teleportable
+      crawl.routeFinder.planned
+  }
+
+  def setupSpec() {
+    TestUtils.decoratePropertyContainer()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    RoomNode.initialise(db)
+    tx = db.beginTx()
+    start = RoomNode.create('start', null, '', ['a'])
+    def middle1 = start.link('a', RoomNode.create('middle1', null, '', ['b'])).to
+    def middle2 = middle1.link('b', RoomNode.create('middle2', null, '', ['c'])).to
+    assert middle2.exit('c').unexplored
+    teleportable = RoomNode.create('teleportable', '#T', '', ['d'])
+  }
+
+  def cleanup() {
+    tx.close()
+    db.shutdown()
+  }
+}
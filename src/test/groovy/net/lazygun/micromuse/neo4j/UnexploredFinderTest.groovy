@@ -0,0 +1,120 @@
+package net.lazygun.micromuse.neo4j
+
+import net.lazygun.micromuse.TestUtils
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.graphdb.Transaction
+import org.neo4j.test.TestGraphDatabaseFactory
+import spock.lang.Specification
+
+import static net.lazygun.micromuse.neo4j.RoomNode.Relation.EXIT
+import static org.neo4j.graphdb.Direction.OUTGOING
+
+/**
+ * @author Ewan
+ */
+class UnexploredFinderTest extends Specification {
+
+  GraphDatabaseService db
+  Transaction tx
+
+  def "routes are as short as a plain search's, however the map has grown since the hints were left"() {
+    given: 'a start room, and its unexplored exits'
+      def random = new Random(42)
+      def ids = [RoomNode.create('room 0', null, '', ['a', 'b', 'c']).id]
+      def open = ['a', 'b', 'c'].collect { [ids[0], it] }
+      def wrong = []
+
+    when: 'we link exits at random, to new rooms or back to old ones, asking the way from a few rooms after each'
+      for (int i = 1; i <= 300 && open; i++) {
+        def (fromId, exit) = open.remove(random.nextInt(open.size()))
+        def to
+        if (random.nextInt(4) == 0) {
+          to = RoomNode.findById(ids[random.nextInt(ids.size())])
+        } else {
+          def exits = (0..random.nextInt(3)).collect { "e$it".toString() }
+          to = RoomNode.create("room $i", null, '', exits)
+          ids << to.id
+          open.addAll(exits.collect { [to.id, it] })
+        }
+        RoomNode.findById(fromId).link(exit, to)
+        5.times {
+          def room = RoomNode.findById(ids[random.nextInt(ids.size())])
+          def claimed = random.nextBoolean() ? [] as Set : unexploredNear(room)
+          def route = room.findNearestUnexplored(claimed)
+          def expected = distance(room.id, claimed)
+          if (route?.size() != expected || (route != null && (!route.last().to.unexplored || route.last().to.id in claimed))) {
+            wrong << "after link $i, from ${room.name}, excluding $claimed: ${route?.size()} instead of $expected"
+          }
+        }
+      }
+
+    then:
+      wrong == []
+  }
+
+  def "there are never more hints than the most it can keep"() {
+    given: 'a corridor of ten rooms with an unexplored room at the end, and a finder that keeps four hints'
+      def corridor = (0..<10).collect { RoomNode.create("room $it", null, '', ['on']) }
+      (0..<9).each { corridor[it].link('on', corridor[it + 1]) }
+      def finder = new UnexploredFinder(db, RoomNode.UNEXPLORED, 4)
+
+    when:
+      def found = corridor.collect { finder.find(it, [] as Set).size() }
+
+    then: 'every route is still the shortest'
+      found == (10..1).toList()
+      finder.size() <= 4
+  }
+
+  /**
+   * @return the unexplored rooms next to the given room's nearest one, and that one
+   */
+  private Set<Long> unexploredNear(RoomNode room) {
+    def route = room.findNearestUnexplored()
+    route == null ? [] as Set : route.last().from.getRelationships(EXIT, OUTGOING)*.endNode.findAll {
+      it.hasLabel(RoomNode.UNEXPLORED)
+    }*.id as Set
+  }
+
+  /**
+   * @return how many exits it takes to get from the given room to an unexplored room that isn't
+   *         excluded, found by a plain breadth-first search
+   */
+  private Integer distance(long start, Set<Long> excluding) {
+    def seen = [start] as Set
+    def level = [db.getNodeById(start)]
+    for (int distance = 1; level; distance++) {
+      def next = []
+      for (node in level) {
+        for (rel in node.getRelationships(EXIT, OUTGOING)) {
+          def end = rel.endNode
+          if (!seen.add(end.id)) {
+            continue
+          }
+          if (!end.hasLabel(RoomNode.UNEXPLORED)) {
+            next << end
+          } else if (!(end.id in excluding)) {
+            return distance
+          }
+        }
+      }
+      level = next
+    }
+    return null
+  }
+
+  def setupSpec() {
+    TestUtils.decoratePropertyContainer()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    RoomNode.initialise(db)
+    tx = db.beginTx()
+  }
+
+  def cleanup() {
+    tx.close()
+    db.shutdown()
+  }
+}
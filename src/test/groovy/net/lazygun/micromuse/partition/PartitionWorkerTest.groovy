@@ -0,0 +1,131 @@
+package net.lazygun.micromuse.partition
+
+import net.lazygun.micromuse.Link
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.TestUtils
+import net.lazygun.micromuse.neo4j.GraphRoomService
+import net.lazygun.micromuse.neo4j.RoomNode
+import net.lazygun.micromuse.record.LinkRecords
+import net.lazygun.micromuse.telnet.FakeMuseServer
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.test.TestGraphDatabaseFactory
+import org.neo4j.tooling.GlobalGraphOperations
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+/**
+ * @author Ewan
+ */
+class PartitionWorkerTest extends Specification {
+
+  static final int WORKERS = 2
+
+  GraphDatabaseService db
+  List<Link> links = []
+  Set<RoomImpl> rooms = []
+  File directory
+
+  /**
+   * A tree of rooms, two exits wide and four deep, with exits back up again. Every other room on
+   * the second level can be teleported to.
+   */
+  void createMap() {
+    def root = room('0', '#0', ['0a', '0b'])
+    def parents = [root]
+    (1..4).each { depth ->
+      def children = []
+      parents.each { parent ->
+        parent.exits.findAll { it != 'up' }.each { exit ->
+          def location = depth == 2 && children.size() % 2 == 0 ? "#${rooms.size()}" : null
+          def child = room(exit, location, depth < 4 ? ["${exit}a", "${exit}b", 'up'] : ['up'])
+          links << new Link(parent, exit, child)
+          links << new Link(child, 'up', parent)
+          children << child
+        }
+      }
+      parents = children
+    }
+  }
+
+  private RoomImpl room(String name, String location, List exits) {
+    def room = new RoomImpl(name, location, '', exits*.toString())
+    rooms << room
+    room
+  }
+
+  def "links survive a round trip through the record format"() {
+    given:
+      def from = new RoomImpl('A\troom, with\\odd\nchars', '#1', 'line one\nline two', ['north,east', 'up'])
+      def to = new RoomImpl('B', null, '', [])
+
+    when:
+      def link = LinkRecords.parse(LinkRecords.format(new Link(from, 'north,east', to)))
+
+    then:
+      link.from.name == from.name
+      link.from.location == '#1'
+      link.from.description == from.description
+      link.from.exits == from.exits
+      link.exit == 'north,east'
+      link.to.location == null
+      link.to.exits == []
+  }
+
+  def "partitioned workers in separate processes crawl the whole map between them"() {
+    given: 'a MUSE server, and a worker process for each partition'
+      def server = new FakeMuseServer(links)
+      def processes = (0..<WORKERS).collect { worker ->
+        new ProcessBuilder(
+            new File(System.getProperty('java.home'), 'bin/java').path,
+            '-cp', System.getProperty('java.class.path'),
+            PartitionWorker.name,
+            directory.path, "$worker", "$WORKERS", '2', new File(directory, "db-$worker").path,
+            'player', 'password', server.host, "$server.port")
+          .redirectErrorStream(true)
+          .redirectOutput(new File(directory, "worker-${worker}.log"))
+          .start()
+      }
+
+    when: 'they have all finished'
+      processes.each { assert it.waitFor() == 0 }
+      server.close()
+
+    and: 'their recordings are merged into one graph'
+      def recordings = (0..<WORKERS).collect { new File(directory, "worker-${it}.links") }
+      new PartitionMerger(new GraphRoomService(db)).merge(recordings)
+      def ops = GlobalGraphOperations.at(db)
+      def tx = db.beginTx()
+      def relationships, nodes, unexplored
+      try {
+        relationships = ops.allRelationships.toList().size()
+        nodes = ops.getAllNodesWithLabel(RoomNode.ROOM).toList().size()
+        unexplored = ops.getAllNodesWithLabel(RoomNode.ROOM).count { !it.hasRelationship() || it.name == 'UNEXPLORED' }
+      } finally {
+        tx.close()
+      }
+
+    then: 'the graph is the whole map'
+      relationships == links.size()
+      nodes == rooms.size()
+      unexplored == 0
+
+    and: 'every worker did some of the crawling'
+      recordings.every { it.length() > 0 }
+  }
+
+  def setupSpec() {
+    TestUtils.decoratePropertyContainer()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    directory = Files.createTempDirectory('partition').toFile()
+    createMap()
+  }
+
+  def cleanup() {
+    db.shutdown()
+    directory.deleteDir()
+  }
+}
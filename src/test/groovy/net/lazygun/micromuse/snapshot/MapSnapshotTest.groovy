@@ -0,0 +1,132 @@
+package net.lazygun.micromuse.snapshot
+
+import net.lazygun.micromuse.Link
+import net.lazygun.micromuse.MapSession
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.TestUtils
+import net.lazygun.micromuse.neo4j.GraphRoomService
+import net.lazygun.micromuse.neo4j.MapImporter
+import net.lazygun.micromuse.record.LinkRecordReader
+import net.lazygun.micromuse.record.LinkRecordWriter
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.test.TestGraphDatabaseFactory
+import org.neo4j.tooling.GlobalGraphOperations
+import spock.lang.Specification
+
+/**
+ * @author Ewan
+ */
+class MapSnapshotTest extends Specification {
+
+  GraphDatabaseService db
+  GraphRoomService roomService
+  File file
+  MapSnapshot snapshot
+  List<Link> links = []
+
+  def "a snapshot holds every room and exit in the graph"() {
+    expect:
+      snapshot.roomCount == count { it.allNodes }
+      snapshot.exitCount == count { it.allRelationships }
+      snapshot.countUnexplored() == roomService.countUnexplored()
+
+    and: 'each room reads back as it is in the graph'
+      def tx = db.beginTx()
+      (0..<snapshot.roomCount).collect { snapshot.room(it) }.findAll { !it.unexplored }.each { room ->
+        def node = roomService.findOrCreate(room)
+        assert node.id == room.id
+        assert room.name == node.name
+        assert room.location == node.location
+        assert room.exits == node.exits
+        assert room.teleportable == node.teleportable
+        assert snapshot.findById(room.id) == room
+      }
+      tx.close()
+  }
+
+  def "rooms in a snapshot can be looked up, walked through and searched"() {
+    when:
+      def root = snapshot.findByLocation('#0')
+      def route = root.findNearestUnexplored()
+
+    then:
+      root.name == '0'
+      root.exit('a').exit('up') == root
+      snapshot.findByLocation('#nowhere') == null
+      route.last().to.unexplored
+      route.size() == graphRouteSize(root.id)
+
+    and: 'excluded unexplored rooms are passed over'
+      root.findNearestUnexplored([route.last().to.id] as Set).last().to != route.last().to
+  }
+
+  def "a recorded map can be replayed against a snapshot"() {
+    when: 'we walk an explored part of the map'
+      def session = new MapSession(snapshot, links)
+      def entered = session.exit(['a', 'a', 'up', 'up'])
+
+    then:
+      entered*.name == ['0a', '0aa', '0a', '0']
+      entered.every { it instanceof SnapshotRoom }
+      snapshot.builder().copy(links[0].from).build() == session.currentRoom
+  }
+
+  def setupSpec() {
+    TestUtils.decoratePropertyContainer()
+  }
+
+  def setup() {
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    roomService = new GraphRoomService(db)
+    def root = new RoomImpl('0', '#0', 'The root', ['a', 'b'])
+    def parents = [root]
+    (1..3).each { depth ->
+      def children = []
+      parents.each { parent ->
+        parent.exits.findAll { it != 'up' }.each { exit ->
+          def child = new RoomImpl(parent.name + exit, exit == 'b' ? "#${parent.name}b" : null, 'Somewhere',
+                                   depth < 3 ? ['a', 'b', 'up'] : ['up'])
+          links << new Link(parent, exit, child)
+          links << new Link(child, 'up', parent)
+          children << child
+        }
+      }
+      parents = children
+    }
+
+    // Leave the deepest rooms unexplored
+    def recording = new StringWriter()
+    def writer = new LinkRecordWriter(recording)
+    links.take(12).each { writer.write(it) }
+    writer.close()
+    new MapImporter(db).importLinks(new LinkRecordReader(new StringReader(recording.toString())))
+
+    file = File.createTempFile('map', '.snapshot')
+    roomService.exportSnapshot(file)
+    snapshot = new MapSnapshot(file)
+  }
+
+  def cleanup() {
+    snapshot.close()
+    file.delete()
+    db.shutdown()
+  }
+
+  private int graphRouteSize(long id) {
+    def tx = db.beginTx()
+    try {
+      roomService.findOrCreate(snapshot.findById(id)).findNearestUnexplored().size()
+    } finally {
+      tx.close()
+    }
+  }
+
+  private int count(Closure<Iterable> query) {
+    def tx = db.beginTx()
+    try {
+      query(GlobalGraphOperations.at(db)).iterator().size()
+    } finally {
+      tx.close()
+    }
+  }
+}
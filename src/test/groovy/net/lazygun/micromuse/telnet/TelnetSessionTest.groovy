@@ -0,0 +1,113 @@
+package net.lazygun.micromuse.telnet
+
+import net.lazygun.micromuse.Crawler
+import net.lazygun.micromuse.Link
+import net.lazygun.micromuse.RoomImpl
+import net.lazygun.micromuse.TraversalException
+import net.lazygun.micromuse.metrics.CrawlMetrics
+import net.lazygun.micromuse.metrics.MeteredRoomService
+import net.lazygun.micromuse.neo4j.GraphRoomService
+import org.neo4j.graphdb.GraphDatabaseService
+import org.neo4j.test.TestGraphDatabaseFactory
+import org.neo4j.tooling.GlobalGraphOperations
+import spock.lang.Specification
+
+/**
+ * @author Ewan
+ */
+class TelnetSessionTest extends Specification {
+
+  GraphDatabaseService db
+  GraphRoomService roomService
+  FakeMuseServer server
+  List<Link> links
+
+  def "session starts in the first room"() {
+    when: 'we connect'
+      def session = connect()
+
+    then: 'we are in the first room of the map'
+      session.currentRoom.name == 'Square'
+      session.currentRoom.location == '#1'
+      session.currentRoom.exits == ['Inn', 'Lane']
+
+    cleanup:
+      session?.close()
+  }
+
+  def "a batch of exits is followed in one go"() {
+    given: 'a session in the first room'
+      def session = connect()
+      def tx = db.beginTx()
+
+    when: 'we send a route of three exits at once'
+      def rooms = session.exit(['Lane', 'Gate', 'Lane'])
+
+    then: 'we get back each room we passed through'
+      rooms*.name == ['Lane', 'Gate', 'Lane']
+      session.currentRoom.name == 'Lane'
+
+    cleanup:
+      tx?.close()
+      session?.close()
+  }
+
+  def "a bad exit in a batch is reported"() {
+    given: 'a session in the first room'
+      def session = connect()
+      def tx = db.beginTx()
+
+    when: 'the second exit in the batch does not exist'
+      session.exit(['Lane', 'Cellar'])
+
+    then: 'the move fails and the session knows where it really is'
+      thrown(TraversalException)
+      session.currentRoom.name == 'Lane'
+
+    cleanup:
+      tx?.close()
+      session?.close()
+  }
+
+  def "map can be crawled over telnet"() {
+    when: 'the fake MUSE is crawled'
+      def metered = new MeteredRoomService(roomService, new CrawlMetrics(roomService))
+      def factory = new TelnetSessionFactory(metered, server.host, server.port, 'crawler', 'secret')
+      def linksCreated = Crawler.crawl(2, 100, metered, factory)
+      def relationships = 0
+      org.neo4j.graphdb.Transaction tx = db.beginTx()
+      try {
+        relationships = GlobalGraphOperations.at(db).allRelationships.toList().size()
+      } finally {
+        tx.close()
+      }
+
+    then: 'every link in the map has been found'
+      linksCreated == links.size()
+      relationships == links.size()
+  }
+
+  TelnetSession connect() {
+    new TelnetSession(roomService, server.host, server.port, 'crawler', 'secret')
+  }
+
+  def setup() {
+    def square = new RoomImpl('Square', '#1', 'The town square.', ['Inn', 'Lane'])
+    def inn = new RoomImpl('Inn', null, 'A noisy inn.\nIt smells of beer.', ['Out'])
+    def lane = new RoomImpl('Lane', null, '', ['Square', 'Gate'])
+    def gate = new RoomImpl('Gate', '#2', 'The town gate.', ['Lane'])
+    links = [
+      new Link(square, 'Inn', inn), new Link(inn, 'Out', square),
+      new Link(square, 'Lane', lane), new Link(lane, 'Square', square),
+      new Link(lane, 'Gate', gate), new Link(gate, 'Lane', lane)
+    ]
+    server = new FakeMuseServer(links)
+    db = new TestGraphDatabaseFactory().newImpermanentDatabase()
+    roomService = new GraphRoomService(db)
+  }
+
+  def cleanup() {
+    server.close()
+    db.shutdown()
+  }
+}